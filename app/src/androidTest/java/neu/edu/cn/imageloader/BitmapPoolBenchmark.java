@@ -0,0 +1,163 @@
+package neu.edu.cn.imageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by neuHenry on 2017/10/21.
+ * 对比有无BitmapPool时连续解码的Bitmap分配量和GC暂停：模拟滑动中内存缓存不断淘汰旧图、解码新图，
+ * 有复用池时被淘汰的Bitmap放入池中供inBitmap使用。Bitmap在JVM单元测试中无法创建，只能在设备上运行：
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.imageloader.benchmark=true
+ */
+
+@RunWith(AndroidJUnit4.class)
+public class BitmapPoolBenchmark {
+
+    private static final String TAG = "BitmapPoolBenchmark";
+
+    // 网格中常见的几种缩略图尺寸
+    private static final int[][] SIZES = {{480, 320}, {320, 320}, {400, 300}};
+
+    private static final int IMAGE_COUNT = 24;
+
+    private static final int DECODES = 600;
+
+    // 模拟内存缓存能容纳的图片数，超出时淘汰最早解码的
+    private static final int CACHED_BITMAPS = 12;
+
+    @Test
+    public void decodeWithAndWithoutPool() throws Exception {
+        Assume.assumeTrue("run with imageloader.benchmark=true",
+                Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString("imageloader.benchmark")));
+        Assume.assumeTrue(BitmapPool.isSupported());
+        File[] files = createImages(InstrumentationRegistry.getTargetContext().getCacheDir());
+        // 预热解码器
+        run(new ImageResizer(), null, files);
+        Result withoutPool = run(new ImageResizer(), null, files);
+        BitmapPool pool = new BitmapPool(CACHED_BITMAPS * SIZES[0][0] * SIZES[0][1] * 4);
+        Result withPool = run(new ImageResizer(pool), pool, files);
+        Log.i(TAG, "without pool: " + withoutPool);
+        Log.i(TAG, "with pool:    " + withPool + ", " + pool);
+        assertTrue(withPool.mAllocatedBytes < withoutPool.mAllocatedBytes);
+    }
+
+    private static Result run(ImageResizer resizer, BitmapPool pool, File[] files) throws IOException {
+        ArrayDeque<Bitmap> cache = new ArrayDeque<>();
+        Runtime.getRuntime().gc();
+        long[] gcBefore = readGcStats();
+        long allocated = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < DECODES; i++) {
+            FileInputStream in = new FileInputStream(files[i % files.length]);
+            int hits = pool != null ? pool.getHitCount() : 0;
+            Bitmap bitmap;
+            try {
+                bitmap = resizer.decodeSampledBitmapFromFileDescriptor(in.getFD(), 0, 0);
+            } finally {
+                in.close();
+            }
+            if (pool == null || pool.getHitCount() == hits) {
+                // 没有从池中取出可复用的Bitmap，解码时新分配了像素内存
+                allocated += bitmap.getAllocationByteCount();
+            }
+            cache.addLast(bitmap);
+            if (cache.size() > CACHED_BITMAPS) {
+                Bitmap evicted = cache.removeFirst();
+                if (pool == null || !pool.put(evicted)) {
+                    evicted.recycle();
+                }
+            }
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        long[] gcAfter = readGcStats();
+        for (Bitmap bitmap : cache) {
+            bitmap.recycle();
+        }
+        return new Result(elapsed, allocated, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+    }
+
+    /**
+     * @return GC次数和阻塞GC的总耗时（毫秒），API 23以下无法读取时为0
+     */
+    private static long[] readGcStats() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return new long[2];
+        }
+        return new long[]{parse(Debug.getRuntimeStat("art.gc.gc-count")),
+                parse(Debug.getRuntimeStat("art.gc.blocking-gc-time"))};
+    }
+
+    private static long parse(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static File[] createImages(File directory) throws IOException {
+        File[] files = new File[IMAGE_COUNT];
+        Paint paint = new Paint();
+        for (int i = 0; i < IMAGE_COUNT; i++) {
+            int[] size = SIZES[i % SIZES.length];
+            Bitmap bitmap = Bitmap.createBitmap(size[0], size[1], Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            canvas.drawColor(Color.rgb(i * 10, 255 - i * 10, 128));
+            paint.setColor(Color.rgb(255 - i * 10, i * 10, 64));
+            canvas.drawCircle(size[0] / 2, size[1] / 2, size[1] / 3, paint);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, bytes);
+            bitmap.recycle();
+            files[i] = new File(directory, "pool_benchmark_" + i + ".jpg");
+            FileOutputStream out = new FileOutputStream(files[i]);
+            try {
+                out.write(bytes.toByteArray());
+            } finally {
+                out.close();
+            }
+        }
+        return files;
+    }
+
+    private static class Result {
+        final long mElapsedNanos;
+        final long mAllocatedBytes;
+        final long mGcCount;
+        final long mBlockingGcMillis;
+
+        Result(long elapsedNanos, long allocatedBytes, long gcCount, long blockingGcMillis) {
+            mElapsedNanos = elapsedNanos;
+            mAllocatedBytes = allocatedBytes;
+            mGcCount = gcCount;
+            mBlockingGcMillis = blockingGcMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d decodes in %.1fms, bitmap allocations %dKB, gc %d, blocking gc %dms",
+                    DECODES, mElapsedNanos / 1e6, mAllocatedBytes / 1024, mGcCount, mBlockingGcMillis);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package neu.edu.cn.imageloader;
+
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by neuHenry on 2017/11/01.
+ * 打开中的图片的图块被淘汰时不能放入复用池，否则可能在View绘制时被复用解码覆盖或被回收
+ */
+
+@RunWith(AndroidJUnit4.class)
+public class TileCacheTest {
+
+    // 每个图块64KB
+    private static final int TILE_SIZE = 128;
+
+    @Test
+    public void evictedTilesOfOpenImageAreNotPooled() {
+        RecordingPool pool = new RecordingPool();
+        TileCache cache = new TileCache(4 * 64, pool);
+        cache.openImage(1);
+        List<Bitmap> tiles = putTiles(cache, 1, 8);
+        // 后放入的图块把前4个淘汰，它们可能还在View绘制的列表中
+        assertEquals(4 * 64, cache.size());
+        assertTrue(pool.mPut.isEmpty());
+        for (Bitmap tile : tiles) {
+            assertFalse(tile.isRecycled());
+        }
+    }
+
+    @Test
+    public void tilesArePooledAfterImageIsRemoved() {
+        RecordingPool pool = new RecordingPool();
+        TileCache cache = new TileCache(4 * 64, pool);
+        cache.openImage(1);
+        cache.openImage(2);
+        List<Bitmap> tiles = putTiles(cache, 1, 2);
+        putTiles(cache, 2, 2);
+        cache.removeImage(1);
+        assertEquals(tiles, pool.mPut);
+        assertEquals(2 * 64, cache.size());
+    }
+
+    @Test
+    public void trimmingBudgetToZeroDoesNotPoolOpenImageTiles() {
+        RecordingPool pool = new RecordingPool();
+        TileCache cache = new TileCache(4 * 64, pool);
+        cache.openImage(1);
+        List<Bitmap> tiles = putTiles(cache, 1, 2);
+        // onTrimMemory(TRIM_MEMORY_COMPLETE)把预算调为0，打开中的图片的图块只丢弃
+        cache.setBudget(0);
+        assertEquals(0, cache.size());
+        assertTrue(pool.mPut.isEmpty());
+        for (Bitmap tile : tiles) {
+            assertFalse(tile.isRecycled());
+        }
+    }
+
+    private static List<Bitmap> putTiles(TileCache cache, int imageId, int count) {
+        List<Bitmap> tiles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Bitmap tile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            tiles.add(tile);
+            cache.put(TileCache.getKey(imageId, 1, i, 0), tile);
+        }
+        return tiles;
+    }
+
+    /**
+     * 只记录放入的Bitmap，不复用也不回收，便于检查哪些图块进入了复用池
+     */
+    static class RecordingPool extends BitmapPool {
+
+        final List<Bitmap> mPut = new ArrayList<>();
+
+        RecordingPool() {
+            super(Integer.MAX_VALUE);
+        }
+
+        @Override
+        public synchronized boolean put(Bitmap bitmap) {
+            mPut.add(bitmap);
+            return true;
+        }
+    }
+}
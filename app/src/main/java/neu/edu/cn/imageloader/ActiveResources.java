@@ -0,0 +1,186 @@
+package neu.edu.cn.imageloader;
+
+import android.graphics.Bitmap;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by neuHenry on 2017/11/02.
+ * 正在被View显示或等待显示的Bitmap，以内存缓存的key为键按引用计数管理，在内存缓存之前查找。
+ * 被内存缓存淘汰但仍在显示的Bitmap可以从这里找到，不必重新解码，也不会被放入复用池；
+ * 引用计数归零时通过Listener放回内存缓存。只保存弱引用，持有者没有释放就被回收时条目自动清除
+ */
+
+public class ActiveResources {
+
+    public interface Listener {
+        /**
+         * 引用计数归零，不再被任何View使用，在调用release的线程中回调
+         * @param key 内存缓存的key
+         */
+        void onResourceReleased(String key, Bitmap bitmap);
+    }
+
+    private final Listener mListener;
+
+    // 同一key通常只有一个Bitmap，极少数情况下重复解码会出现多个
+    private final Map<String, List<ResourceRef>> mResources = new HashMap<>();
+
+    private final ReferenceQueue<Bitmap> mQueue = new ReferenceQueue<>();
+
+    public ActiveResources(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 增加bitmap的引用计数
+     * @param key 内存缓存的key
+     */
+    public synchronized void acquire(String key, Bitmap bitmap) {
+        cleanUp();
+        ResourceRef ref = find(key, bitmap);
+        if (ref == null) {
+            ref = new ResourceRef(key, bitmap, mQueue);
+            List<ResourceRef> refs = mResources.get(key);
+            if (refs == null) {
+                refs = new ArrayList<>(1);
+                mResources.put(key, refs);
+            }
+            refs.add(ref);
+        }
+        ref.mCount++;
+    }
+
+    /**
+     * 查找使用中的Bitmap并增加引用计数，与release在同一把锁中，找到的Bitmap不会在此期间归零
+     * @param key 内存缓存的key
+     * @return 已增加引用计数的Bitmap，用完后需release，没有时返回null
+     */
+    public synchronized Bitmap acquire(String key) {
+        cleanUp();
+        List<ResourceRef> refs = mResources.get(key);
+        if (refs == null) {
+            return null;
+        }
+        for (ResourceRef ref : refs) {
+            Bitmap bitmap = ref.get();
+            if (bitmap != null) {
+                ref.mCount++;
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从内存缓存中取出Bitmap并增加引用计数。内存缓存淘汰Bitmap时用isActive检查是否可放入复用池，
+     * 取出和增加引用计数都在这把锁中完成，两者之间被淘汰的Bitmap不会被放入复用池
+     * @param key 内存缓存的key
+     * @return 已增加引用计数的Bitmap，用完后需release，没有时返回null
+     */
+    public synchronized Bitmap acquire(String key, BitmapMemoryCache memoryCache) {
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            acquire(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 减少bitmap的引用计数，归零时移除并回调Listener
+     */
+    public void release(String key, Bitmap bitmap) {
+        synchronized (this) {
+            ResourceRef ref = find(key, bitmap);
+            if (ref == null || --ref.mCount > 0) {
+                return;
+            }
+            remove(ref);
+        }
+        mListener.onResourceReleased(key, bitmap);
+    }
+
+    /**
+     * @param key 内存缓存的key
+     * @return 正在使用中的Bitmap，没有时返回null
+     */
+    public synchronized Bitmap get(String key) {
+        cleanUp();
+        List<ResourceRef> refs = mResources.get(key);
+        if (refs == null) {
+            return null;
+        }
+        for (ResourceRef ref : refs) {
+            Bitmap bitmap = ref.get();
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return bitmap正在显示或等待显示时返回true
+     */
+    public synchronized boolean isActive(String key, Bitmap bitmap) {
+        return find(key, bitmap) != null;
+    }
+
+    /**
+     * @return 使用中的Bitmap个数
+     */
+    public synchronized int size() {
+        cleanUp();
+        int size = 0;
+        for (List<ResourceRef> refs : mResources.values()) {
+            size += refs.size();
+        }
+        return size;
+    }
+
+    private ResourceRef find(String key, Bitmap bitmap) {
+        List<ResourceRef> refs = mResources.get(key);
+        if (refs == null) {
+            return null;
+        }
+        for (ResourceRef ref : refs) {
+            if (ref.get() == bitmap) {
+                return ref;
+            }
+        }
+        return null;
+    }
+
+    private void remove(ResourceRef ref) {
+        ref.clear();
+        List<ResourceRef> refs = mResources.get(ref.mKey);
+        if (refs != null && refs.remove(ref) && refs.isEmpty()) {
+            mResources.remove(ref.mKey);
+        }
+    }
+
+    /**
+     * 清除持有者没有释放就被回收的条目
+     */
+    private void cleanUp() {
+        ResourceRef ref;
+        while ((ref = (ResourceRef) mQueue.poll()) != null) {
+            remove(ref);
+        }
+    }
+
+    private static class ResourceRef extends WeakReference<Bitmap> {
+        final String mKey;
+        int mCount;
+
+        ResourceRef(String key, Bitmap bitmap, ReferenceQueue<Bitmap> queue) {
+            super(bitmap, queue);
+            mKey = key;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package neu.edu.cn.imageloader;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by neuHenry on 2017/10/25.
+ * 以url和所需宽高共同作为key的Bitmap内存缓存，同一url不同尺寸的解码结果互不覆盖，
+ * 并可以查找同一url已缓存的更大尺寸的Bitmap，缩小后使用而不必再从磁盘解码
+ */
+
+public class BitmapMemoryCache {
+
+    private final LruCache<String, Bitmap> mCache;
+
+    // 当前允许的占用，不超过maxSize，内存紧张时调低，单位KB
+    private volatile int mBudget;
+
+    // 每个url已缓存的所有尺寸，以hashKeyForDisk(url)为键，由自身加锁保护。mCache的增删也都在这把锁中进行，
+    // 持有锁时其中的条目与mCache中的条目一致，可以代替mCache.get判断是否已缓存，不影响命中统计和LRU顺序
+    private final Map<String, List<Variant>> mVariants = new HashMap<>();
+
+    /**
+     * @param maxSize 缓存的最大容量，单位KB
+     */
+    public BitmapMemoryCache(int maxSize) {
+        mBudget = maxSize;
+        mCache = new LruCache<String, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight() / 1024;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (newValue == null) {
+                    removeVariant(key);
+                }
+                if (oldValue != newValue) {
+                    onEntryRemoved(key, oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param diskKey hashKeyForDisk(url)
+     * @param reqWidth 所需的宽度值
+     * @param reqHeight 所需的高度值
+     * @return 内存缓存中使用的key
+     */
+    public static String getKey(String diskKey, int reqWidth, int reqHeight) {
+        return diskKey + "_" + reqWidth + "x" + reqHeight;
+    }
+
+    /**
+     * @return 所需尺寸的Bitmap，没有时返回null
+     */
+    public Bitmap get(String diskKey, int reqWidth, int reqHeight) {
+        return mCache.get(getKey(diskKey, reqWidth, reqHeight));
+    }
+
+    /**
+     * @param key getKey返回的key
+     * @return 对应的Bitmap，没有时返回null
+     */
+    public Bitmap get(String key) {
+        return mCache.get(key);
+    }
+
+    /**
+     * 查找同一url已缓存的其他尺寸中，宽高都不小于所需宽高且占用内存最小的Bitmap
+     * @return 可缩小后使用的Bitmap，没有时返回null
+     */
+    public Bitmap getLargerVariant(String diskKey, int reqWidth, int reqHeight) {
+        String key = getLargerVariantKey(diskKey, reqWidth, reqHeight);
+        return key == null ? null : mCache.get(key);
+    }
+
+    /**
+     * @return getLargerVariant所返回Bitmap的key，没有时返回null
+     */
+    public String getLargerVariantKey(String diskKey, int reqWidth, int reqHeight) {
+        synchronized (mVariants) {
+            List<Variant> variants = mVariants.get(diskKey);
+            if (variants == null) {
+                return null;
+            }
+            Variant best = null;
+            for (Variant variant : variants) {
+                if (variant.mWidth >= reqWidth && variant.mHeight >= reqHeight
+                        && (best == null || variant.mByteCount < best.mByteCount)) {
+                    best = variant;
+                }
+            }
+            return best != null ? best.mKey : null;
+        }
+    }
+
+    public void put(String diskKey, int reqWidth, int reqHeight, Bitmap bitmap) {
+        put(getKey(diskKey, reqWidth, reqHeight), bitmap);
+    }
+
+    /**
+     * @param key getKey返回的key，用于把不再显示的Bitmap放回缓存
+     */
+    public void put(String key, Bitmap bitmap) {
+        String diskKey = getDiskKey(key);
+        synchronized (mVariants) {
+            // 检查和放入在同一把锁中，两个线程同时放入同一key时只有先到的一个生效
+            List<Variant> variants = mVariants.get(diskKey);
+            if (variants == null) {
+                variants = new ArrayList<>(2);
+                mVariants.put(diskKey, variants);
+            } else if (indexOf(variants, key) >= 0) {
+                return;
+            }
+            variants.add(new Variant(key, bitmap.getWidth(), bitmap.getHeight(), bitmap.getByteCount()));
+            mCache.put(key, bitmap);
+            int budget = mBudget;
+            if (mCache.size() > budget) {
+                mCache.trimToSize(budget);
+            }
+        }
+    }
+
+    private static int indexOf(List<Variant> variants, String key) {
+        for (int i = 0; i < variants.size(); i++) {
+            if (variants.get(i).mKey.equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String getDiskKey(String key) {
+        return key.substring(0, key.lastIndexOf('_'));
+    }
+
+    private void removeVariant(String key) {
+        String diskKey = getDiskKey(key);
+        synchronized (mVariants) {
+            List<Variant> variants = mVariants.get(diskKey);
+            if (variants == null) {
+                return;
+            }
+            int index = indexOf(variants, key);
+            if (index >= 0) {
+                variants.remove(index);
+            }
+            if (variants.isEmpty()) {
+                mVariants.remove(diskKey);
+            }
+        }
+    }
+
+    /**
+     * Bitmap被淘汰或替换后回调，子类可在此回收Bitmap
+     * @param key 被移出缓存的key
+     * @param bitmap 被移出缓存的Bitmap
+     */
+    protected void onEntryRemoved(String key, Bitmap bitmap) {
+    }
+
+    public void evictAll() {
+        synchronized (mVariants) {
+            mCache.evictAll();
+        }
+    }
+
+    public void trimToSize(int maxSize) {
+        synchronized (mVariants) {
+            mCache.trimToSize(maxSize);
+        }
+    }
+
+    public int size() {
+        return mCache.size();
+    }
+
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * 调整允许的占用并立即淘汰超出的部分
+     * @param budget 允许的占用，超过maxSize时按maxSize计，单位KB
+     */
+    public void setBudget(int budget) {
+        synchronized (mVariants) {
+            mBudget = Math.max(0, Math.min(budget, maxSize()));
+            if (mBudget == 0) {
+                mCache.evictAll();
+            } else {
+                mCache.trimToSize(mBudget);
+            }
+        }
+    }
+
+    public int getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * @return 缓存中的Bitmap个数
+     */
+    public int getEntryCount() {
+        int count = 0;
+        synchronized (mVariants) {
+            for (List<Variant> variants : mVariants.values()) {
+                count += variants.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 平均每个缓存的Bitmap占用的字节数，用于衡量解码策略的效果
+     */
+    public int getAverageEntryBytes() {
+        int count = getEntryCount();
+        return count == 0 ? 0 : (int) ((long) size() * 1024 / count);
+    }
+
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    @Override
+    public String toString() {
+        return mCache.toString() + "{budget=" + getBudget() + "KB, entries=" + getEntryCount()
+                + ", avgBytes=" + getAverageEntryBytes() + "}";
+    }
+
+    private static class Variant {
+        final String mKey;
+        final int mWidth;
+        final int mHeight;
+        final int mByteCount;
+
+        Variant(String key, int width, int height, int byteCount) {
+            mKey = key;
+            mWidth = width;
+            mHeight = height;
+            mByteCount = byteCount;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package neu.edu.cn.imageloader;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+/**
+ * Created by neuHenry on 2017/10/21.
+ * 可复用Bitmap的缓存池，按Bitmap占用的字节数分桶，总字节数不超过上限。
+ * 解码时通过BitmapFactory.Options.inBitmap复用池中的Bitmap，避免频繁分配内存引起GC
+ */
+
+public class BitmapPool {
+
+    // 取出的Bitmap最多可比所需大这么多倍，避免用大图承载小图浪费内存
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<>();
+
+    // 入池顺序，超出上限时先淘汰最早入池的Bitmap
+    private final LinkedList<Bitmap> mOrder = new LinkedList<>();
+
+    private int mMaxSize;
+
+    private int mCurrentSize;
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    private int mPutCount;
+
+    private int mEvictionCount;
+
+    /**
+     * @param maxSize 缓存池的最大字节数
+     */
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * inBitmap只在4.4及以上才能复用尺寸不同的Bitmap，低版本不使用缓存池
+     * @return 当前系统是否支持复用池
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * @param bitmap 不再使用的Bitmap
+     * @return 放入池中返回true，否则调用方可自行回收
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized boolean put(Bitmap bitmap) {
+        if (!isSupported() || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return false;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (size > mMaxSize / 2) {
+            return false;
+        }
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        mOrder.addLast(bitmap);
+        mCurrentSize += size;
+        mPutCount++;
+        trimToSize(mMaxSize);
+        return true;
+    }
+
+    /**
+     * @param width 解码后的宽度
+     * @param height 解码后的高度
+     * @param config 解码使用的像素格式
+     * @return 可承载该尺寸的Bitmap，没有合适的返回null
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (!isSupported()) {
+            return null;
+        }
+        int size = width * height * getBytesPerPixel(config);
+        Integer bucketSize = mBuckets.ceilingKey(size);
+        if (bucketSize == null || bucketSize > size * MAX_SIZE_MULTIPLE) {
+            mMissCount++;
+            return null;
+        }
+        Bitmap bitmap = removeFromBucket(bucketSize, mBuckets.get(bucketSize).removeLast());
+        mOrder.remove(bitmap);
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * 淘汰最早入池的Bitmap，直到总字节数不超过maxSize
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized void trimToSize(int maxSize) {
+        while (mCurrentSize > maxSize && !mOrder.isEmpty()) {
+            Bitmap bitmap = mOrder.removeFirst();
+            int size = bitmap.getAllocationByteCount();
+            LinkedList<Bitmap> bucket = mBuckets.get(size);
+            bucket.remove(bitmap);
+            removeFromBucket(size, bitmap);
+            mEvictionCount++;
+            bitmap.recycle();
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @param maxSize 新的最大字节数，缩小时立即淘汰多出的Bitmap
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    private Bitmap removeFromBucket(int bucketSize, Bitmap bitmap) {
+        if (mBuckets.get(bucketSize).isEmpty()) {
+            mBuckets.remove(bucketSize);
+        }
+        mCurrentSize -= bucketSize;
+        return bitmap;
+    }
+
+    /**
+     * @return 该像素格式每个像素占用的字节数
+     */
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int getSize() {
+        return mCurrentSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return "BitmapPool{size=" + mCurrentSize + ", maxSize=" + mMaxSize + ", hits=" + mHitCount
+                + ", misses=" + mMissCount + ", hitRate=" + hitPercent + "%, evictions=" + mEvictionCount + "}";
+    }
+}
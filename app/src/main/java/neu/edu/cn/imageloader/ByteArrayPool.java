@@ -0,0 +1,95 @@
+package neu.edu.cn.imageloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Created by neuHenry on 2017/10/22.
+ * 可在各工作线程之间共享的byte[]缓存池，用于下载、读写时的缓冲区，避免每次拷贝都分配新数组。
+ * 池中数组的总字节数不超过上限，超出时先淘汰最久未使用的数组
+ */
+
+public class ByteArrayPool {
+
+    private static final Comparator<byte[]> BUF_COMPARATOR = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] lhs, byte[] rhs) {
+            return lhs.length - rhs.length;
+        }
+    };
+
+    // 按最近归还的顺序排列，用于淘汰
+    private final List<byte[]> mBuffersByLastUse = new LinkedList<>();
+
+    // 按数组长度升序排列，用于查找
+    private final List<byte[]> mBuffersBySize = new ArrayList<>(64);
+
+    private final int mSizeLimit;
+
+    private int mCurrentSize = 0;
+
+    /**
+     * @param sizeLimit 池中数组的最大总字节数
+     */
+    public ByteArrayPool(int sizeLimit) {
+        mSizeLimit = sizeLimit;
+    }
+
+    /**
+     * @param len 所需的最小长度
+     * @return 长度不小于len的数组，池中没有合适的数组时新分配一个
+     */
+    public synchronized byte[] getBuf(int len) {
+        for (int i = 0; i < mBuffersBySize.size(); i++) {
+            byte[] buf = mBuffersBySize.get(i);
+            if (buf.length >= len) {
+                mCurrentSize -= buf.length;
+                mBuffersBySize.remove(i);
+                mBuffersByLastUse.remove(buf);
+                return buf;
+            }
+        }
+        return new byte[len];
+    }
+
+    /**
+     * @param buf 用完的数组，归还后调用方不能再使用它
+     */
+    public synchronized void returnBuf(byte[] buf) {
+        if (buf == null || buf.length > mSizeLimit) {
+            return;
+        }
+        mBuffersByLastUse.add(buf);
+        int pos = Collections.binarySearch(mBuffersBySize, buf, BUF_COMPARATOR);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        mBuffersBySize.add(pos, buf);
+        mCurrentSize += buf.length;
+        trim();
+    }
+
+    private void trim() {
+        while (mCurrentSize > mSizeLimit) {
+            byte[] buf = mBuffersByLastUse.remove(0);
+            mBuffersBySize.remove(buf);
+            mCurrentSize -= buf.length;
+        }
+    }
+
+    /**
+     * 丢弃池中所有数组，内存紧张时调用
+     */
+    public synchronized void clear() {
+        mBuffersByLastUse.clear();
+        mBuffersBySize.clear();
+        mCurrentSize = 0;
+    }
+
+    public synchronized int getSize() {
+        return mCurrentSize;
+    }
+}
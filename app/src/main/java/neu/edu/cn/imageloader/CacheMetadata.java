@@ -0,0 +1,178 @@
+package neu.edu.cn.imageloader;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Created by neuHenry on 2017/10/31.
+ * 磁盘缓存条目的HTTP元数据，保存在条目的第二个值中，用于判断条目是否过期以及发起条件请求
+ */
+
+public class CacheMetadata {
+
+    // 有校验器但响应未给出有效期时，缓存的最长有效期，单位毫秒
+    private static final long MAX_HEURISTIC_FRESHNESS = 24 * 60 * 60 * 1000;
+
+    // 没有校验器也没有有效期时，无法廉价地重新验证，视为永不过期
+    private static final long NEVER = Long.MAX_VALUE;
+
+    private static final String HTTP_DATE_PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private final String mETag;
+
+    private final String mLastModified;
+
+    // 过期时间，单位毫秒
+    private final long mExpires;
+
+    CacheMetadata(String eTag, String lastModified, long expires) {
+        mETag = eTag;
+        mLastModified = lastModified;
+        mExpires = expires;
+    }
+
+    /**
+     * @param response 200或304响应
+     * @param now 收到响应的时间，单位毫秒
+     */
+    public static CacheMetadata fromResponse(NetworkResponse response, long now) {
+        String eTag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+        return new CacheMetadata(eTag, lastModified,
+                computeExpires(response, eTag, lastModified, now));
+    }
+
+    /**
+     * 304响应后刷新元数据，响应中没有的校验器沿用原来的
+     */
+    public CacheMetadata refresh(NetworkResponse response, long now) {
+        String eTag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+        if (eTag == null) {
+            eTag = mETag;
+        }
+        if (lastModified == null) {
+            lastModified = mLastModified;
+        }
+        return new CacheMetadata(eTag, lastModified, computeExpires(response, eTag, lastModified, now));
+    }
+
+    private static long computeExpires(NetworkResponse response, String eTag, String lastModified, long now) {
+        String cacheControl = response.getHeader("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    // 图片仍写入磁盘缓存，但每次使用前都要重新验证
+                    return now;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring("max-age=".length())) * 1000;
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        long expires = parseDate(response.getHeader("Expires"));
+        if (expires > 0) {
+            long date = parseDate(response.getHeader("Date"));
+            // 按服务器时钟计算有效期，避免客户端时钟偏差
+            return now + Math.max(0, expires - (date > 0 ? date : now));
+        }
+        long modified = parseDate(lastModified);
+        if (modified > 0) {
+            // 启发式有效期：距上次修改时间的10%
+            return now + Math.min(MAX_HEURISTIC_FRESHNESS, Math.max(0, now - modified) / 10);
+        }
+        return eTag != null ? now + MAX_HEURISTIC_FRESHNESS : NEVER;
+    }
+
+    /**
+     * @return HTTP日期对应的毫秒数，无法解析时返回-1
+     */
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_PATTERN, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return date.getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return 已过期并且有校验器可用于条件请求时返回true
+     */
+    public boolean needsRevalidation(long now) {
+        return now >= mExpires && (mETag != null || mLastModified != null);
+    }
+
+    /**
+     * @return 条件请求的请求头
+     */
+    public Map<String, String> getConditionalHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        if (mETag != null) {
+            headers.put("If-None-Match", mETag);
+        }
+        if (mLastModified != null) {
+            headers.put("If-Modified-Since", mLastModified);
+        }
+        return headers;
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public long getExpires() {
+        return mExpires;
+    }
+
+    /**
+     * @param value encode()得到的字符串
+     * @return 解析出的元数据，格式不正确时返回null
+     */
+    public static CacheMetadata decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] lines = value.split("\n", -1);
+        if (lines.length < 3) {
+            return null;
+        }
+        try {
+            return new CacheMetadata(lines[1].isEmpty() ? null : lines[1], lines[2].isEmpty() ? null : lines[2],
+                    Long.parseLong(lines[0]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return 写入磁盘缓存的字符串，依次为过期时间、ETag、Last-Modified，每项一行
+     */
+    public String encode() {
+        return mExpires + "\n" + (mETag != null ? mETag : "") + "\n" + (mLastModified != null ? mLastModified : "");
+    }
+
+    @Override
+    public String toString() {
+        return "CacheMetadata{eTag=" + mETag + ", lastModified=" + mLastModified + ", expires=" + mExpires + "}";
+    }
+}
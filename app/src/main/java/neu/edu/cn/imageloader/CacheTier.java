@@ -0,0 +1,17 @@
+package neu.edu.cn.imageloader;
+
+/**
+ * Created by neuHenry on 2017/10/28.
+ * 加载路径上的缓存层级
+ */
+
+public enum CacheTier {
+    // 正在显示或等待显示的Bitmap，在内存缓存之前查找
+    ACTIVE,
+    MEMORY,
+    // 按所需尺寸重新压缩的缩略图，在原图之前查找
+    THUMBNAIL,
+    // 内存中的原图编码数据，在磁盘缓存之前查找
+    ENCODED,
+    DISK
+}
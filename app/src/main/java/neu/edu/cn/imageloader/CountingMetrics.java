@@ -0,0 +1,278 @@
+package neu.edu.cn.imageloader;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by neuHenry on 2017/10/28.
+ * 默认的统计实现，只使用原子计数器和直方图，可在生产环境中常开并定期导出
+ */
+
+public class CountingMetrics implements ImageLoaderMetrics {
+
+    private final AtomicLong mActiveHitCount = new AtomicLong();
+
+    private final AtomicLong mActiveMissCount = new AtomicLong();
+
+    private final AtomicLong mMemoryHitCount = new AtomicLong();
+
+    private final AtomicLong mMemoryMissCount = new AtomicLong();
+
+    private final AtomicLong mThumbnailHitCount = new AtomicLong();
+
+    private final AtomicLong mThumbnailMissCount = new AtomicLong();
+
+    private final AtomicLong mEncodedHitCount = new AtomicLong();
+
+    private final AtomicLong mEncodedMissCount = new AtomicLong();
+
+    private final AtomicLong mDiskHitCount = new AtomicLong();
+
+    private final AtomicLong mDiskMissCount = new AtomicLong();
+
+    private final AtomicLong mNetworkLoadCount = new AtomicLong();
+
+    private final AtomicLong mFailureCount = new AtomicLong();
+
+    private final AtomicLong mBytesDownloaded = new AtomicLong();
+
+    private final AtomicLong mBytesDecoded = new AtomicLong();
+
+    // 因队列已满被丢弃的任务数和其上等待的请求数
+    private final AtomicLong mShedTaskCount = new AtomicLong();
+
+    private final AtomicLong mShedRequestCount = new AtomicLong();
+
+    // 发生丢弃时队列长度的最大值
+    private volatile int mPeakQueueSize;
+
+    // 内存预算被调整的次数
+    private final AtomicLong mBudgetChangeCount = new AtomicLong();
+
+    // 内存缓存最近一次的预算，单位KB
+    private volatile int mMemoryBudget;
+
+    // 内存缓存最近一次的占用和容量，单位KB
+    private volatile int mMemoryCacheSize;
+
+    private volatile int mMemoryCacheMaxSize;
+
+    private final LatencyHistogram mQueueWaitTime = new LatencyHistogram();
+
+    private final LatencyHistogram mNetworkTime = new LatencyHistogram();
+
+    private final LatencyHistogram mDiskWriteTime = new LatencyHistogram();
+
+    private final LatencyHistogram mDiskReadTime = new LatencyHistogram();
+
+    private final LatencyHistogram mDecodeTime = new LatencyHistogram();
+
+    private final LatencyHistogram mTotalTime = new LatencyHistogram();
+
+    @Override
+    public void onCacheHit(CacheTier tier) {
+        getHitCounter(tier).incrementAndGet();
+    }
+
+    @Override
+    public void onCacheMiss(CacheTier tier) {
+        getMissCounter(tier).incrementAndGet();
+    }
+
+    @Override
+    public void onBytesDownloaded(long bytes) {
+        mBytesDownloaded.addAndGet(bytes);
+    }
+
+    @Override
+    public void onBytesDecoded(long bytes) {
+        mBytesDecoded.addAndGet(bytes);
+    }
+
+    @Override
+    public void onMemoryCacheSize(int size, int maxSize) {
+        mMemoryCacheSize = size;
+        mMemoryCacheMaxSize = maxSize;
+    }
+
+    @Override
+    public void onLoadComplete(LoadTimings timings) {
+        if (!timings.isSuccess()) {
+            mFailureCount.incrementAndGet();
+        }
+        if (timings.isFromNetwork()) {
+            mNetworkLoadCount.incrementAndGet();
+            mNetworkTime.record(toMillis(timings.getNetworkTime()));
+            mDiskWriteTime.record(toMillis(timings.getDiskWriteTime()));
+        }
+        mQueueWaitTime.record(toMillis(timings.getQueueWaitTime()));
+        mDiskReadTime.record(toMillis(timings.getDiskReadTime()));
+        if (timings.getDecodeTime() > 0) {
+            mDecodeTime.record(toMillis(timings.getDecodeTime()));
+        }
+        mTotalTime.record(toMillis(timings.getTotalTime()));
+    }
+
+    @Override
+    public void onMemoryBudgetChanged(int previousBudget, int budget, int trimLevel) {
+        mBudgetChangeCount.incrementAndGet();
+        mMemoryBudget = budget;
+    }
+
+    @Override
+    public void onTaskShed(String stage, int requests, int queueSize) {
+        mShedTaskCount.incrementAndGet();
+        mShedRequestCount.addAndGet(requests);
+        if (queueSize > mPeakQueueSize) {
+            mPeakQueueSize = queueSize;
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private AtomicLong getHitCounter(CacheTier tier) {
+        switch (tier) {
+            case ACTIVE:
+                return mActiveHitCount;
+            case MEMORY:
+                return mMemoryHitCount;
+            case THUMBNAIL:
+                return mThumbnailHitCount;
+            case ENCODED:
+                return mEncodedHitCount;
+            default:
+                return mDiskHitCount;
+        }
+    }
+
+    private AtomicLong getMissCounter(CacheTier tier) {
+        switch (tier) {
+            case ACTIVE:
+                return mActiveMissCount;
+            case MEMORY:
+                return mMemoryMissCount;
+            case THUMBNAIL:
+                return mThumbnailMissCount;
+            case ENCODED:
+                return mEncodedMissCount;
+            default:
+                return mDiskMissCount;
+        }
+    }
+
+    public long getHitCount(CacheTier tier) {
+        return getHitCounter(tier).get();
+    }
+
+    public long getMissCount(CacheTier tier) {
+        return getMissCounter(tier).get();
+    }
+
+    /**
+     * @return 该层级的命中率，取值0~1
+     */
+    public float getHitRate(CacheTier tier) {
+        long hits = getHitCount(tier);
+        long total = hits + getMissCount(tier);
+        return total == 0 ? 0 : (float) hits / total;
+    }
+
+    /**
+     * @return 从网络下载的任务数
+     */
+    public long getNetworkLoadCount() {
+        return mNetworkLoadCount.get();
+    }
+
+    /**
+     * @return 失败或被取消的任务数
+     */
+    public long getFailureCount() {
+        return mFailureCount.get();
+    }
+
+    public long getBytesDownloaded() {
+        return mBytesDownloaded.get();
+    }
+
+    public long getBytesDecoded() {
+        return mBytesDecoded.get();
+    }
+
+    public int getMemoryCacheSize() {
+        return mMemoryCacheSize;
+    }
+
+    public int getMemoryCacheMaxSize() {
+        return mMemoryCacheMaxSize;
+    }
+
+    public long getShedTaskCount() {
+        return mShedTaskCount.get();
+    }
+
+    /**
+     * @return 因队列已满而失败的请求数
+     */
+    public long getShedRequestCount() {
+        return mShedRequestCount.get();
+    }
+
+    public int getPeakQueueSize() {
+        return mPeakQueueSize;
+    }
+
+    public long getBudgetChangeCount() {
+        return mBudgetChangeCount.get();
+    }
+
+    /**
+     * @return 内存缓存最近一次的预算，单位KB，未调整过时为0
+     */
+    public int getMemoryBudget() {
+        return mMemoryBudget;
+    }
+
+    public LatencyHistogram getQueueWaitTime() {
+        return mQueueWaitTime;
+    }
+
+    public LatencyHistogram getNetworkTime() {
+        return mNetworkTime;
+    }
+
+    public LatencyHistogram getDiskWriteTime() {
+        return mDiskWriteTime;
+    }
+
+    public LatencyHistogram getDiskReadTime() {
+        return mDiskReadTime;
+    }
+
+    public LatencyHistogram getDecodeTime() {
+        return mDecodeTime;
+    }
+
+    public LatencyHistogram getTotalTime() {
+        return mTotalTime;
+    }
+
+    @Override
+    public String toString() {
+        return "CountingMetrics{activeHitRate=" + getHitRate(CacheTier.ACTIVE)
+                + ", memoryHitRate=" + getHitRate(CacheTier.MEMORY)
+                + ", thumbnailHitRate=" + getHitRate(CacheTier.THUMBNAIL)
+                + ", encodedHitRate=" + getHitRate(CacheTier.ENCODED)
+                + ", diskHitRate=" + getHitRate(CacheTier.DISK)
+                + ", network=" + getNetworkLoadCount() + ", failures=" + getFailureCount()
+                + ", downloaded=" + getBytesDownloaded() / 1024 + "KB, decoded=" + getBytesDecoded() / 1024
+                + "KB, memoryCache=" + getMemoryCacheSize() + "/" + getMemoryCacheMaxSize()
+                + "KB, budgetChanges=" + getBudgetChangeCount() + ", shedTasks=" + getShedTaskCount()
+                + ", shedRequests=" + getShedRequestCount() + ", peakQueue=" + getPeakQueueSize()
+                + ", queueWait=" + mQueueWaitTime + ", networkTime=" + mNetworkTime
+                + ", diskWrite=" + mDiskWriteTime + ", diskRead=" + mDiskReadTime
+                + ", decodeTime=" + mDecodeTime + ", total=" + mTotalTime + "}";
+    }
+}
@@ -0,0 +1,62 @@
+package neu.edu.cn.imageloader;
+
+import android.graphics.Bitmap;
+
+/**
+ * Created by neuHenry on 2017/10/27.
+ * 解码参数策略：像素格式、是否精确缩放到所需尺寸、单张图片的内存上限
+ */
+
+public class DecodePolicy {
+
+    /**
+     * 不透明的JPEG使用RGB_565，其他格式使用ARGB_8888，并精确缩放到所需尺寸
+     */
+    public static final DecodePolicy DEFAULT = new DecodePolicy(null, true, 0);
+
+    /**
+     * 始终使用ARGB_8888，只按2的幂次采样，与早期版本的解码结果一致
+     */
+    public static final DecodePolicy ORIGINAL = new DecodePolicy(Bitmap.Config.ARGB_8888, false, 0);
+
+    private final Bitmap.Config mConfig;
+
+    private final boolean mExactSize;
+
+    private final int mMaxBytes;
+
+    /**
+     * @param config 解码使用的像素格式，为null时按图片类型自动选择
+     * @param exactSize 为true时在采样之后继续缩放，使结果恰好覆盖所需宽高
+     * @param maxBytes 单张解码结果占用内存的上限，超出时加大采样率，为0时不限制
+     */
+    public DecodePolicy(Bitmap.Config config, boolean exactSize, int maxBytes) {
+        mConfig = config;
+        mExactSize = exactSize;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param mimeType 解码图片头得到的outMimeType
+     * @return 解码该图片使用的像素格式
+     */
+    public Bitmap.Config resolveConfig(String mimeType) {
+        if (mConfig != null) {
+            return mConfig;
+        }
+        // JPEG没有透明通道，RGB_565的内存占用只有ARGB_8888的一半
+        return "image/jpeg".equals(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    public Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    public boolean isExactSize() {
+        return mExactSize;
+    }
+
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+}
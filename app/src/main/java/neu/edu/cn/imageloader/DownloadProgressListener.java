@@ -0,0 +1,16 @@
+package neu.edu.cn.imageloader;
+
+/**
+ * Created by neuHenry on 2017/10/22.
+ * 图片下载进度的回调，在下载线程中调用
+ */
+
+public interface DownloadProgressListener {
+
+    /**
+     * @param url 图片的url地址
+     * @param bytesRead 已下载的字节数
+     * @param contentLength 响应的Content-Length，未知时为-1
+     */
+    void onProgress(String url, long bytesRead, long contentLength);
+}
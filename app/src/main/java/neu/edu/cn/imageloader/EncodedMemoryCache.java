@@ -0,0 +1,191 @@
+package neu.edu.cn.imageloader;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * Created by neuHenry on 2017/11/09.
+ * 原图编码数据（JPEG/PNG等）的内存缓存，位于Bitmap内存缓存和磁盘缓存之间，以磁盘缓存的key为key。
+ * 编码数据通常只有解码后Bitmap的几分之一，同样的内存可以容纳多得多的图片，
+ * Bitmap缓存未命中时直接从内存中解码，不必读取文件。数据保存在本缓存独有的ByteArrayPool取出的数组中，
+ * 条目被淘汰且没有解码线程在使用时数组归还这个池。整张图的数组不能放进下载和读写共用的8KB缓冲区池，
+ * 否则会把IO缓冲区挤出，缓存中的数组也可能被其他线程取走
+ */
+
+public class EncodedMemoryCache {
+
+    // 单个条目最多占总容量的比例，避免一张大图把其他条目全部挤出
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    public static final class Entry {
+
+        private final byte[] mData;
+
+        private final int mLength;
+
+        private final CacheMetadata mMetadata;
+
+        // 缓存自身持有一个引用，每个正在解码的线程各持有一个，由EncodedMemoryCache加锁保护
+        private int mRefCount = 1;
+
+        private Entry(byte[] data, int length, CacheMetadata metadata) {
+            mData = data;
+            mLength = length;
+            mMetadata = metadata;
+        }
+
+        /**
+         * @return 保存编码数据的数组，长度可能大于数据长度
+         */
+        public byte[] getData() {
+            return mData;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        /**
+         * @return 原图的元数据，可能为null
+         */
+        public CacheMetadata getMetadata() {
+            return mMetadata;
+        }
+    }
+
+    private final LruCache<String, Entry> mCache;
+
+    // 只保存被淘汰条目的数组，总字节数不超过单个条目的上限
+    private final ByteArrayPool mBufferPool;
+
+    // 当前允许的占用，不超过maxSize，内存紧张时调低，单位KB
+    private volatile int mBudget;
+
+    /**
+     * @param maxSize 缓存的最大容量，单位KB
+     */
+    public EncodedMemoryCache(int maxSize) {
+        mBufferPool = new ByteArrayPool(Math.max(0, maxSize) / MAX_ENTRY_FRACTION * 1024);
+        mBudget = maxSize;
+        mCache = new LruCache<String, Entry>(Math.max(1, maxSize)) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return (entry.mData.length + 1023) / 1024;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+                if (oldValue != newValue) {
+                    release(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param length 编码数据的长度，单位字节
+     * @return 是否值得放入缓存，超过单个条目的上限或预算为0时返回false
+     */
+    public boolean accepts(int length) {
+        return length > 0 && (length + 1023) / 1024 <= mBudget / MAX_ENTRY_FRACTION;
+    }
+
+    /**
+     * @param length 所需的最小长度，单位字节
+     * @return 用于读入编码数据的数组，读入后通过put放入缓存，放弃时调用recycleBuffer
+     */
+    public byte[] obtainBuffer(int length) {
+        return mBufferPool.getBuf(length);
+    }
+
+    /**
+     * 归还obtainBuffer取出但没有放入缓存的数组
+     */
+    public void recycleBuffer(byte[] data) {
+        mBufferPool.returnBuf(data);
+    }
+
+    /**
+     * 放入编码数据，数组此后归缓存所有，调用方不能再归还
+     * @param data 从obtainBuffer取出的数组
+     * @param length 数据长度
+     * @param metadata 原图的元数据，可为null
+     * @return 已增加引用计数的条目，用完后必须调用release
+     */
+    public synchronized Entry put(String key, byte[] data, int length, CacheMetadata metadata) {
+        Entry entry = new Entry(data, length, metadata);
+        entry.mRefCount++;
+        mCache.put(key, entry);
+        if (mCache.size() > mBudget) {
+            trimToBudget();
+        }
+        return entry;
+    }
+
+    /**
+     * @return 已增加引用计数的条目，用完后必须调用release，未命中时返回null
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = mCache.get(key);
+        if (entry != null) {
+            entry.mRefCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * 释放get或put返回的条目，已被淘汰且不再被使用时数组归还复用池
+     */
+    public synchronized void release(Entry entry) {
+        if (--entry.mRefCount == 0) {
+            mBufferPool.returnBuf(entry.mData);
+        }
+    }
+
+    /**
+     * 原图被重新下载或数据无法解码时移除
+     */
+    public synchronized void remove(String key) {
+        mCache.remove(key);
+    }
+
+    public synchronized void evictAll() {
+        mCache.evictAll();
+    }
+
+    /**
+     * @return 当前占用，单位KB
+     */
+    public synchronized int size() {
+        return mCache.size();
+    }
+
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * 调整允许的占用并立即淘汰超出的部分
+     * @param budget 允许的占用，超过maxSize时按maxSize计，单位KB
+     */
+    public synchronized void setBudget(int budget) {
+        mBudget = Math.max(0, Math.min(budget, maxSize()));
+        trimToBudget();
+        if (mBudget == 0) {
+            mBufferPool.clear();
+        }
+    }
+
+    private void trimToBudget() {
+        if (mBudget == 0) {
+            mCache.evictAll();
+        } else {
+            mCache.trimToSize(mBudget);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EncodedMemoryCache{size=" + size() + "KB, maxSize=" + maxSize() + "KB, hits=" + mCache.hitCount()
+                + ", misses=" + mCache.missCount() + "}";
+    }
+}
@@ -0,0 +1,53 @@
+package neu.edu.cn.imageloader;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Created by neuHenry on 2017/10/30.
+ * 限制同一主机上同时进行的请求数，避免大量缩略图请求同时占满一个主机的连接
+ */
+
+public class HostLimiter {
+
+    private final int mMaxRequestsPerHost;
+
+    private final Map<String, Semaphore> mSemaphores = new HashMap<>();
+
+    /**
+     * @param maxRequestsPerHost 每个主机同时进行的最大请求数
+     */
+    public HostLimiter(int maxRequestsPerHost) {
+        mMaxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * 获取host的一个名额，名额用完时阻塞等待
+     */
+    public void acquire(String host) throws InterruptedIOException {
+        try {
+            getSemaphore(host).acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while waiting for " + host);
+        }
+    }
+
+    public void release(String host) {
+        getSemaphore(host).release();
+    }
+
+    private synchronized Semaphore getSemaphore(String host) {
+        Semaphore semaphore = mSemaphores.get(host);
+        if (semaphore == null) {
+            semaphore = new Semaphore(mMaxRequestsPerHost);
+            mSemaphores.put(host, semaphore);
+        }
+        return semaphore;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return mMaxRequestsPerHost;
+    }
+}
@@ -1,39 +1,44 @@
 package neu.edu.cn.imageloader;
 
 import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
 import android.os.StatFs;
-import android.support.annotation.NonNull;
-import android.support.v4.util.LruCache;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.widget.ImageView;
 
 import com.jakewharton.disklrucache.DiskLruCache;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -47,156 +52,1505 @@ public class ImageLoader {
 
     private static final long DISK_CATCH_SIZE = 1024 * 1024 * 50;
 
+    // 磁盘缓存期望的分片数，各分片有独立的锁，总容量仍为DISK_CATCH_SIZE，实际分片数受DISK_CACHE_MAX_ENTRY_SIZE限制
+    private static final int DISK_CACHE_SHARD_COUNT = 4;
+
+    // 磁盘缓存中单个原图的大小上限，分片容量不小于该值，分块显示的大图原图也能保存在磁盘缓存中，
+    // 超过该值的原图不会被缓存，每次打开都要重新下载
+    private static final long DISK_CACHE_MAX_ENTRY_SIZE = 1024 * 1024 * 16;
+
+    // 磁盘缓存条目的第一个值是图片数据，第二个值是HTTP元数据
+    private static final int DISK_CACHE_VALUE_COUNT = 2;
+
+    private static final int DISK_CACHE_INDEX_METADATA = 1;
+
+    // 缩略图磁盘缓存的大小
+    private static final long THUMBNAIL_CACHE_SIZE = 1024 * 1024 * 10;
+
+    // 原图不小于该值时才写入缩略图缓存，更小的原图直接解码已足够快
+    private static final long THUMBNAIL_MIN_SOURCE_SIZE = 32 * 1024;
+
     private static final int TAG_KEY_URL = R.id.imageloader_url;
 
-    private static final int MESSAGE_POST_RESULT = 200;
+    private static final int TAG_KEY_REQUEST = R.id.imageloader_request;
 
-    private Context mContext;
+    private static final int IO_BUFFER_SIZE = 8 * 1024;
+
+    // 累计提交这么多个磁盘缓存条目后立即刷新journal
+    private static final int FLUSH_COMMIT_THRESHOLD = 16;
 
-    private ImageResizer mImageResizer = new ImageResizer();
+    // 提交后最迟多久刷新journal，单位毫秒
+    private static final long FLUSH_DELAY_MILLIS = 2000;
 
-    private LruCache<String, Bitmap> mMemoryCache;
+    // 按Content-Length预分配数组的上限，超出时改为边读边解码
+    private static final int MAX_PREALLOCATE_SIZE = 4 * 1024 * 1024;
 
-    private DiskLruCache mDiskLruCache;
+    // 预加载的最少个数
+    private static final int MIN_PREFETCH_COUNT = 6;
 
-    private boolean mIsDiskLruCacheCreated = false;
+    // 预加载的最多个数
+    private static final int MAX_PREFETCH_COUNT = 30;
+
+    // 按滑动速度预估未来多长时间内会滑入屏幕的图片，单位秒
+    private static final float PREFETCH_LOOKAHEAD_SECONDS = 0.5f;
+
+    // 最近使用过的url对应的磁盘缓存key，避免绑定同一url时重复计算MD5
+    private static final KeyHasher KEY_HASHER = new KeyHasher(256);
+
+    // 各工作线程共享的读写缓冲区池
+    private static final ByteArrayPool BUFFER_POOL = new ByteArrayPool(MAX_PREALLOCATE_SIZE);
 
     private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
 
-    private Handler mMainHandler = new Handler(Looper.getMainLooper()) {
+    // 内存缓存至少能容纳这么多屏的图片
+    private static final int SCREENS_IN_MEMORY_CACHE = 3;
+
+    // 内存压力缓解后每隔这么久把预算调回一级，单位毫秒
+    private static final long REGROW_DELAY_MILLIS = 30 * 1000;
+
+    // 预算回升时使用的trimLevel
+    private static final int TRIM_LEVEL_REGROW = -1;
+
+    // 网络阶段以等待网络为主，线程数可以多于核数
+    private static final int NETWORK_POOL_SIZE = Math.max(4, CPU_COUNT * 2);
+
+    // 磁盘阶段负责磁盘缓存的查找、提交和journal刷新，少量线程即可
+    private static final int DISK_POOL_SIZE = 2;
+
+    // 解码阶段是CPU密集型的，线程数与核数相同
+    private static final int DECODE_POOL_SIZE = CPU_COUNT;
+
+    // 网络和磁盘阶段队列的默认最大长度，约为几屏可见图片加上预加载的数量
+    private static final int DEFAULT_MAX_QUEUE_SIZE = 64;
+
+    private Context mContext;
+
+    private BitmapPool mBitmapPool;
+
+    private ImageResizer mImageResizer;
+
+    // 默认的解码参数策略，bindBitmap未指定时使用
+    private volatile DecodePolicy mDecodePolicy = DecodePolicy.DEFAULT;
+
+    private BitmapMemoryCache mMemoryCache;
+
+    // 内存缓存的最大预算，单位KB，内存紧张时的预算在0到该值之间调整
+    private int mMaxMemoryBudget;
+
+    // 内存紧张时调低预算，压力缓解后逐级调回
+    private final ComponentCallbacks2 mComponentCallbacks = new ComponentCallbacks2() {
         @Override
-        public void handleMessage(Message msg) {
-            LoaderResult result = (LoaderResult) msg.obj;
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+
+    private final Runnable mRegrowRunnable = new Runnable() {
+        @Override
+        public void run() {
+            int budget = Math.min(mMaxMemoryBudget, mMemoryCache.getBudget() + mMaxMemoryBudget / 4);
+            setMemoryBudget(budget, TRIM_LEVEL_REGROW);
+            if (budget < mMaxMemoryBudget) {
+                mMainHandler.postDelayed(this, REGROW_DELAY_MILLIS);
+            }
+        }
+    };
+
+    // 磁盘缓存在磁盘阶段的线程中打开，打开前为null
+    private volatile ShardedDiskCache mDiskLruCache;
+
+    private volatile boolean mIsDiskLruCacheCreated = false;
+
+    private volatile JournalFlusher mJournalFlusher;
+
+    // 按所需尺寸解码后重新压缩的缩略图缓存，在原图的磁盘缓存之前查找
+    private volatile ThumbnailCache mThumbnailCache;
+
+    // 磁盘缓存打开完成或失败后为true，由mPendingDiskTasks加锁保护
+    private boolean mDiskCacheReady = false;
+
+    // 已调用close()，由mPendingDiskTasks加锁保护
+    private boolean mClosed = false;
+
+    // 磁盘缓存就绪之前提交的加载任务，就绪后再进入磁盘阶段
+    private final List<LoadTask> mPendingDiskTasks = new ArrayList<>();
+
+    private final CountDownLatch mDiskCacheLatch = new CountDownLatch(1);
+
+    // 打开磁盘缓存的耗时，单位纳秒
+    private volatile long mDiskCacheOpenTime;
+
+    // 分块解码的图块缓存，与mMemoryCache分开计算容量
+    private TileCache mTileCache;
+
+    // 原图编码数据的内存缓存，Bitmap内存缓存未命中时从这里解码，不必读取磁盘缓存
+    private EncodedMemoryCache mEncodedCache;
+
+    // 已打开的分块图片数，用于给分块图片编号
+    private final AtomicInteger mTiledImageCount = new AtomicInteger();
+
+    // 正在加载中的任务，以url和所需宽高对应的内存缓存key为键，相同的后续请求挂到已有任务上等待结果
+    private final Map<String, LoadTask> mInFlightTasks = new HashMap<>();
+
+    // 被合并掉的重复请求数
+    private final AtomicInteger mCoalescedRequestCount = new AtomicInteger();
+
+    // 因请求合并而省下的网络下载次数
+    private final AtomicInteger mAvoidedNetworkCount = new AtomicInteger();
+
+    // 因请求合并而省下的解码次数
+    private final AtomicInteger mAvoidedDecodeCount = new AtomicInteger();
+
+    // 正在显示或等待显示的Bitmap，在内存缓存之前查找，被淘汰时不能放入复用池，不再使用后放回内存缓存
+    private final ActiveResources mActiveResources = new ActiveResources(new ActiveResources.Listener() {
+        @Override
+        public void onResourceReleased(String key, Bitmap bitmap) {
+            Bitmap cached = mMemoryCache.get(key);
+            if (cached == null) {
+                addBitmapToMemoryCache(key, bitmap);
+            } else if (cached != bitmap) {
+                // 同一key已有重复解码的结果，这份已无人使用
+                mBitmapPool.put(bitmap);
+            }
+        }
+    });
+
+    // 每个View当前持有引用计数的Bitmap，只在主线程中访问
+    private final Map<ImageView, DisplayedBitmap> mDisplayedBitmaps = new WeakHashMap<>();
+
+    private Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // 在主线程中每帧统一显示一次加载结果
+    private final ResultDispatcher mResultDispatcher = new ResultDispatcher(mMainHandler,
+            ResultDispatcher.DEFAULT_FRAME_BUDGET_MILLIS, new ResultDispatcher.Callback() {
+        @Override
+        public void onResult(LoaderResult result) {
             ImageView imageView = result.imageView;
             Bitmap bitmap = result.bitmap;
             String url = (String) imageView.getTag(TAG_KEY_URL);
             if (url.equals(result.url)) {
-                imageView.setImageBitmap(bitmap);
+                setImageBitmap(imageView, result.key, bitmap);
             } else {
+                mActiveResources.release(result.key, bitmap);
                 Log.w(TAG, "set image bitmap,but url has changed, ignored!");
             }
         }
-    };
+    });
+
+    // 加载流水线的三个阶段，各自拥有线程池和队列，默认同一优先级内后入队的先执行，
+    // 工作线程在阶段之间转移任务时读取，替换调度策略时整体替换
+    private volatile LoadScheduler mNetworkStage;
+
+    private volatile LoadScheduler mDiskStage;
+
+    private volatile LoadScheduler mDecodeStage;
+
+    // 网络和磁盘阶段队列的最大长度及队列已满时的丢弃策略
+    private int mMaxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+
+    private ShedPolicy mShedPolicy = ShedPolicy.DROP_REBOUND;
+
+    private volatile DownloadProgressListener mProgressListener;
+
+    // 下载所用的网络传输层，默认复用keep-alive连接
+    private volatile NetworkTransport mTransport = new UrlConnectionTransport();
+
+    // 加载过程的统计回调，默认不统计
+    private volatile ImageLoaderMetrics mMetrics = new ImageLoaderMetrics.Adapter();
+
+    // 预加载中的请求，以内存缓存key为键，只在主线程中访问
+    private final Map<String, ImageRequest> mPrefetchRequests = new HashMap<>();
+
+    public ImageLoader(Context context) {
+        mContext = context.getApplicationContext();
+        setSchedulePolicy(SchedulePolicy.LIFO);
+        int cacheSize = computeMemoryCacheSize(mContext);
+        mMaxMemoryBudget = cacheSize;
+        // 创建Bitmap复用池，大小为内存缓存的1/2
+        mBitmapPool = new BitmapPool(cacheSize / 2 * 1024);
+        mImageResizer = new ImageResizer(mBitmapPool);
+        mImageResizer.setTargetDensity(mContext.getResources().getDisplayMetrics().densityDpi);
+        // 创建内存缓存，大小由应用的内存级别和屏幕大小决定
+        mMemoryCache = new BitmapMemoryCache(cacheSize) {
+            @Override
+            protected void onEntryRemoved(String key, Bitmap bitmap) {
+                // 被淘汰或替换的Bitmap若已不再显示，放入复用池供后续解码使用
+                if (!mActiveResources.isActive(key, bitmap)) {
+                    mBitmapPool.put(bitmap);
+                }
+            }
+        };
+        // 创建图块缓存，大小为内存缓存的1/4
+        mTileCache = new TileCache(cacheSize / 4, mBitmapPool);
+        // 创建编码数据缓存，大小为内存缓存的1/4，编码数据远小于解码后的Bitmap，可容纳更多图片
+        mEncodedCache = new EncodedMemoryCache(cacheSize / 4);
+        mContext.registerComponentCallbacks(mComponentCallbacks);
+        // 打开磁盘缓存需要读取并回放整个journal，放到后台执行，不阻塞主线程的首帧
+        mDiskStage.execute(new PrioritizedTask(LoadPriority.VISIBLE) {
+            @Override
+            public void run() {
+                openDiskCache();
+            }
+        });
+    }
+
+    /**
+     * 在磁盘阶段的线程中打开磁盘缓存和缩略图缓存，完成后把等待中的加载任务放入磁盘阶段
+     */
+    private void openDiskCache() {
+        long start = System.nanoTime();
+        ShardedDiskCache diskLruCache = null;
+        ThumbnailCache thumbnailCache = null;
+        try {
+            // 获取缓存文件的缓存路径
+            File diskCacheDir = getDiskCacheDir(mContext, "bitmap");
+            if (!diskCacheDir.exists()) {
+                diskCacheDir.mkdirs();
+            }
+            if (getUsableSpace(diskCacheDir) > DISK_CATCH_SIZE) {
+                int appVersion = getAppVersionCode(mContext);
+                try {
+                    // 创建磁盘缓存，缓存大小为50M，按key分散到多个分片中，每个分片至少能容纳一张16M的原图
+                    diskLruCache = ShardedDiskCache.open(diskCacheDir, appVersion, DISK_CACHE_VALUE_COUNT,
+                            DISK_CATCH_SIZE, DISK_CACHE_SHARD_COUNT, DISK_CACHE_MAX_ENTRY_SIZE);
+                    // 创建缩略图缓存，缓存大小为10M
+                    thumbnailCache = ThumbnailCache.open(getDiskCacheDir(mContext, "thumbnail"), appVersion,
+                            THUMBNAIL_CACHE_SIZE, FLUSH_COMMIT_THRESHOLD, FLUSH_DELAY_MILLIS);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            // 打开过程中抛出任何异常都要结束等待，否则等待中的任务和awaitDiskCache的调用方会一直阻塞
+            publishDiskCache(diskLruCache, thumbnailCache, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 发布打开的结果，标记磁盘缓存已就绪并把等待中的加载任务放入磁盘阶段
+     * @param diskLruCache 打开失败时为null，之后的加载不使用磁盘缓存
+     * @param openTime 打开磁盘缓存的耗时，单位纳秒
+     */
+    private void publishDiskCache(ShardedDiskCache diskLruCache, ThumbnailCache thumbnailCache, long openTime) {
+        List<LoadTask> pending;
+        synchronized (mPendingDiskTasks) {
+            if (mClosed) {
+                closeQuietly(diskLruCache, thumbnailCache);
+                return;
+            }
+            if (diskLruCache != null) {
+                mDiskLruCache = diskLruCache;
+                mJournalFlusher = new JournalFlusher(diskLruCache.getShards(), FLUSH_COMMIT_THRESHOLD,
+                        FLUSH_DELAY_MILLIS);
+                // 磁盘缓存已创建 true
+                mIsDiskLruCacheCreated = true;
+                mThumbnailCache = thumbnailCache;
+            } else if (thumbnailCache != null) {
+                thumbnailCache.close();
+            }
+            mDiskCacheReady = true;
+            pending = new ArrayList<>(mPendingDiskTasks);
+            mPendingDiskTasks.clear();
+        }
+        mDiskCacheOpenTime = openTime;
+        mDiskCacheLatch.countDown();
+        Log.d(TAG, "disk cache opened in " + TimeUnit.NANOSECONDS.toMillis(openTime) + "ms, "
+                + pending.size() + " tasks were waiting");
+        for (LoadTask task : pending) {
+            task.moveTo(LoadTask.STAGE_DISK_LOOKUP, mDiskStage);
+        }
+    }
+
+    private static void closeQuietly(ShardedDiskCache diskLruCache, ThumbnailCache thumbnailCache) {
+        if (diskLruCache != null) {
+            try {
+                diskLruCache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (thumbnailCache != null) {
+            thumbnailCache.close();
+        }
+    }
+
+    /**
+     * 把加载任务放入磁盘阶段，磁盘缓存尚未打开时先排队等待
+     */
+    private void startLoadTask(LoadTask task) {
+        synchronized (mPendingDiskTasks) {
+            if (!mDiskCacheReady) {
+                mPendingDiskTasks.add(task);
+                return;
+            }
+        }
+        task.moveTo(LoadTask.STAGE_DISK_LOOKUP, mDiskStage);
+    }
+
+    /**
+     * 在工作线程中同步访问磁盘缓存前调用，等待磁盘缓存打开完成
+     */
+    private void awaitDiskCache() {
+        try {
+            mDiskCacheLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 磁盘缓存已打开完成或打开失败时返回true
+     */
+    public boolean isDiskCacheReady() {
+        return mDiskCacheLatch.getCount() == 0;
+    }
+
+    /**
+     * @return 打开磁盘缓存的耗时，单位毫秒，尚未打开完成时为0
+     */
+    public long getDiskCacheOpenTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mDiskCacheOpenTime);
+    }
+
+    /**
+     * 按应用的内存级别计算内存缓存的大小：默认为内存级别的1/8，
+     * 但至少能容纳SCREENS_IN_MEMORY_CACHE屏的图片，且不超过内存级别的1/4，低内存设备减半
+     * @return 内存缓存的大小，单位KB
+     */
+    private static int computeMemoryCacheSize(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = activityManager.getMemoryClass() * 1024;
+        // 进程实际可用的堆可能小于内存级别
+        memoryClass = (int) Math.min(memoryClass, Runtime.getRuntime().maxMemory() / 1024);
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int screenSize = metrics.widthPixels * metrics.heightPixels * 4 / 1024;
+        int cacheSize = Math.min(Math.max(memoryClass / 8, screenSize * SCREENS_IN_MEMORY_CACHE), memoryClass / 4);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice()) {
+            cacheSize /= 2;
+        }
+        return cacheSize;
+    }
+
+    /**
+     * 按onTrimMemory的级别逐级调低内存缓存、图块缓存、编码数据缓存和复用池的预算，
+     * 之后若没有新的内存压力，每隔REGROW_DELAY_MILLIS调回1/4直到恢复最大预算
+     * @param level ComponentCallbacks2中的TRIM_MEMORY_*
+     */
+    public void trimMemory(int level) {
+        int budget;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            budget = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            budget = mMaxMemoryBudget / 8;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            budget = mMaxMemoryBudget / 4;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            budget = mMaxMemoryBudget / 2;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            budget = mMaxMemoryBudget / 4;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            budget = mMaxMemoryBudget / 2;
+        } else {
+            budget = mMaxMemoryBudget * 3 / 4;
+        }
+        // 只调低，不因为较轻的压力调高预算
+        if (budget < mMemoryCache.getBudget()) {
+            setMemoryBudget(budget, level);
+        }
+        mMainHandler.removeCallbacks(mRegrowRunnable);
+        mMainHandler.postDelayed(mRegrowRunnable, REGROW_DELAY_MILLIS);
+    }
+
+    /**
+     * @param budget 内存缓存的新预算，单位KB，复用池、图块缓存和编码数据缓存按比例调整
+     */
+    private synchronized void setMemoryBudget(int budget, int trimLevel) {
+        int previous = mMemoryCache.getBudget();
+        if (budget == previous) {
+            return;
+        }
+        mMemoryCache.setBudget(budget);
+        // 打开中的分块图片的图块只丢弃不放入复用池，下面缩小复用池时不会回收仍在绘制的图块
+        mTileCache.setBudget(budget / 4);
+        mEncodedCache.setBudget(budget / 4);
+        mBitmapPool.setMaxSize(budget / 2 * 1024);
+        Log.d(TAG, "memory budget " + previous + "KB -> " + budget + "KB, trim level " + trimLevel);
+        mMetrics.onMemoryBudgetChanged(previous, budget, trimLevel);
+    }
+
+    private void addBitmapToMemoryCache(String memoryKey, Bitmap bitmap) {
+        mMemoryCache.put(memoryKey, bitmap);
+        mMetrics.onMemoryCacheSize(mMemoryCache.size(), mMemoryCache.maxSize());
+    }
+
+    private void acquireAndCache(String key, int reqWidth, int reqHeight, Bitmap bitmap) {
+        acquireAndCache(BitmapMemoryCache.getKey(key, reqWidth, reqHeight), bitmap);
+    }
+
+    /**
+     * 把新解码的Bitmap先标记为使用中再放入内存缓存，投递之前即使被其他线程的put或内存预算调整淘汰，
+     * 也不会被放入复用池再被复用解码覆盖。用完后需release
+     */
+    private void acquireAndCache(String memoryKey, Bitmap bitmap) {
+        mActiveResources.acquire(memoryKey, bitmap);
+        addBitmapToMemoryCache(memoryKey, bitmap);
+    }
+
+    /**
+     * 依次在使用中的Bitmap和内存缓存中查找，找到后增加引用计数，不会在显示之前被放入复用池
+     * @return 已增加引用计数的Bitmap，用完后需release，没有时返回null
+     */
+    private Bitmap acquireBitmapFromMemory(String key) {
+        Bitmap bitmap = mActiveResources.acquire(key);
+        if (bitmap != null) {
+            mMetrics.onCacheHit(CacheTier.ACTIVE);
+            return bitmap;
+        }
+        mMetrics.onCacheMiss(CacheTier.ACTIVE);
+        bitmap = mActiveResources.acquire(key, mMemoryCache);
+        if (bitmap != null) {
+            mMetrics.onCacheHit(CacheTier.MEMORY);
+        } else {
+            mMetrics.onCacheMiss(CacheTier.MEMORY);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @param url 图片的url地址
+     * @param imageView 显示加载到的图片的View
+     * @param reqWidth ImageView所需的宽度值
+     * @param reqHeight ImageView所需的高度值
+     * @return 本次加载的请求句柄，可用于取消加载
+     */
+    public ImageRequest bindBitmap(final String url, final ImageView imageView, final int reqWidth, final int reqHeight) {
+        return bindBitmap(url, imageView, reqWidth, reqHeight, LoadPriority.VISIBLE);
+    }
+
+    /**
+     * @param priority 加载任务的优先级
+     */
+    public ImageRequest bindBitmap(final String url, final ImageView imageView, final int reqWidth, final int reqHeight,
+                                   LoadPriority priority) {
+        return bindBitmap(url, imageView, reqWidth, reqHeight, priority, mDecodePolicy);
+    }
+
+    /**
+     * @param policy 本次请求的解码参数策略，同一url和尺寸的请求合并时以先发起的请求为准
+     */
+    public ImageRequest bindBitmap(final String url, final ImageView imageView, final int reqWidth, final int reqHeight,
+                                   LoadPriority priority, DecodePolicy policy) {
+        String diskKey = hashKeyForDisk(url);
+        String key = BitmapMemoryCache.getKey(diskKey, reqWidth, reqHeight);
+        ImageRequest previous = (ImageRequest) imageView.getTag(TAG_KEY_REQUEST);
+        if (previous != null && !previous.isFinished() && !previous.isCancelled()) {
+            if (previous.mKey.equals(key)) {
+                // 同一url仍在加载中，沿用之前的请求
+                return previous;
+            }
+            // View被复用，取消之前的请求
+            previous.cancel();
+        }
+        imageView.setTag(TAG_KEY_URL, url);
+        ImageRequest request = new ImageRequest(this, key, url, imageView);
+        imageView.setTag(TAG_KEY_REQUEST, request);
+        Bitmap bitmap = acquireBitmapFromMemory(key);
+        if (bitmap != null) {
+            setImageBitmap(imageView, key, bitmap);
+            request.finish();
+            return request;
+        }
+        submit(request, diskKey, reqWidth, reqHeight, priority, policy, false);
+        return request;
+    }
+
+    /**
+     * @param policy 默认的解码参数策略，如DecodePolicy.ORIGINAL
+     */
+    public void setDecodePolicy(DecodePolicy policy) {
+        mDecodePolicy = policy;
+    }
+
+    /**
+     * 把请求挂到相同key的加载任务上，没有时新建任务从磁盘查找阶段开始执行
+     * @param diskOnly 为true时只需把图片写入磁盘缓存，不必解码
+     */
+    private void submit(ImageRequest request, String diskKey, int reqWidth, int reqHeight,
+                        LoadPriority priority, DecodePolicy policy, boolean diskOnly) {
+        LoadTask loadBitmapTask;
+        synchronized (mInFlightTasks) {
+            loadBitmapTask = mInFlightTasks.get(request.mKey);
+            if (loadBitmapTask != null) {
+                // 该url已在加载中，挂到已有任务上等待结果即可
+                loadBitmapTask.mWaiters.add(request);
+                mCoalescedRequestCount.incrementAndGet();
+                if (!diskOnly) {
+                    loadBitmapTask.mDiskOnly = false;
+                }
+                if (priority.compareTo(loadBitmapTask.getPriority()) < 0) {
+                    loadBitmapTask.setPriority(priority);
+                }
+                return;
+            }
+            loadBitmapTask = new LoadTask(diskKey, request.mKey, request.mUrl, reqWidth, reqHeight, priority, policy);
+            loadBitmapTask.mDiskOnly = diskOnly;
+            loadBitmapTask.mWaiters.add(request);
+            mInFlightTasks.put(request.mKey, loadBitmapTask);
+        }
+        startLoadTask(loadBitmapTask);
+    }
+
+    /**
+     * 根据可见范围、滑动方向和速度，以低优先级预加载即将滑入屏幕的图片，
+     * 并取消已不在预加载范围内的预加载请求。需在主线程中调用
+     * @param urls 列表中所有图片的url
+     * @param firstVisible 第一个可见位置
+     * @param visibleCount 可见的个数
+     * @param direction 滑动方向，大于等于0为向后滑动，小于0为向前滑动
+     * @param velocity 滑动速度，单位为每秒滑过的位置数
+     * @param reqWidth ImageView所需的宽度值
+     * @param reqHeight ImageView所需的高度值
+     * @param warmMemory 为true时同时解码到内存缓存，否则只写入磁盘缓存
+     */
+    public void prefetch(List<String> urls, int firstVisible, int visibleCount, int direction, float velocity,
+                         int reqWidth, int reqHeight, boolean warmMemory) {
+        int count = Math.min(MAX_PREFETCH_COUNT,
+                MIN_PREFETCH_COUNT + (int) (Math.abs(velocity) * PREFETCH_LOOKAHEAD_SECONDS));
+        int start;
+        int end;
+        if (direction >= 0) {
+            start = firstVisible + visibleCount;
+            end = start + count;
+        } else {
+            end = firstVisible;
+            start = end - count;
+        }
+        start = Math.max(0, start);
+        end = Math.min(urls.size(), end);
+
+        Map<String, ImageRequest> window = new HashMap<>();
+        for (int i = start; i < end; i++) {
+            String url = urls.get(i);
+            String diskKey = hashKeyForDisk(url);
+            String key = BitmapMemoryCache.getKey(diskKey, reqWidth, reqHeight);
+            ImageRequest request = mPrefetchRequests.remove(key);
+            if (request == null || request.isCancelled()) {
+                if (mActiveResources.get(key) != null || mMemoryCache.get(key) != null) {
+                    continue;
+                }
+                request = new ImageRequest(this, key, url, null);
+                submit(request, diskKey, reqWidth, reqHeight, LoadPriority.PREFETCH, mDecodePolicy, !warmMemory);
+            }
+            window.put(key, request);
+        }
+        // 取消已不在预加载范围内的请求
+        cancelPrefetch();
+        mPrefetchRequests.putAll(window);
+    }
+
+    /**
+     * 取消所有尚未完成的预加载请求，需在主线程中调用
+     */
+    public void cancelPrefetch() {
+        for (ImageRequest request : mPrefetchRequests.values()) {
+            request.cancel();
+        }
+        mPrefetchRequests.clear();
+    }
+
+    /**
+     * 调整请求所在加载任务的优先级，尚在队列中的任务会按新优先级重新排队
+     * @param request bindBitmap返回的请求句柄
+     * @param priority 新的优先级
+     */
+    public void setPriority(ImageRequest request, LoadPriority priority) {
+        synchronized (mInFlightTasks) {
+            LoadTask task = mInFlightTasks.get(request.mKey);
+            if (task != null && task.mWaiters.contains(request)) {
+                task.setPriority(priority);
+            }
+        }
+    }
+
+    /**
+     * 替换各阶段的调度策略，已在旧队列中排队的任务转入新的调度器按新策略执行，
+     * 旧调度器执行完正在执行的任务后结束线程
+     * @param policy 任务排序规则，如SchedulePolicy.FIFO
+     */
+    public synchronized void setSchedulePolicy(Comparator<? super PrioritizedTask> policy) {
+        LoadScheduler network = mNetworkStage;
+        LoadScheduler disk = mDiskStage;
+        LoadScheduler decode = mDecodeStage;
+        mNetworkStage = new LoadScheduler("ImageLoader-network", NETWORK_POOL_SIZE, policy);
+        mDiskStage = new LoadScheduler("ImageLoader-disk", DISK_POOL_SIZE, policy);
+        mDecodeStage = new LoadScheduler("ImageLoader-decode", DECODE_POOL_SIZE, policy);
+        setMaxQueueSize(mMaxQueueSize, mShedPolicy);
+        if (network != null) {
+            network.handOff(mNetworkStage);
+            disk.handOff(mDiskStage);
+            decode.handOff(mDecodeStage);
+        }
+    }
+
+    /**
+     * 限制网络和磁盘阶段的队列长度，队列已满时按policy丢弃尚未下载的任务，被丢弃的请求以失败结束。
+     * 解码阶段的任务数据已在本地，不限制
+     * @param maxQueueSize 队列的最大长度，小于等于0时不限制
+     * @param policy 队列已满时选择丢弃哪个任务，如ShedPolicy.DROP_OLDEST
+     */
+    public void setMaxQueueSize(int maxQueueSize, ShedPolicy policy) {
+        mMaxQueueSize = maxQueueSize;
+        mShedPolicy = policy;
+        mNetworkStage.setMaxQueueSize(maxQueueSize, policy);
+        mDiskStage.setMaxQueueSize(maxQueueSize, policy);
+    }
+
+    /**
+     * @return 网络阶段的调度器，可读取队列深度和等待时间
+     */
+    public LoadScheduler getNetworkStage() {
+        return mNetworkStage;
+    }
+
+    /**
+     * @return 磁盘阶段的调度器，可读取队列深度和等待时间
+     */
+    public LoadScheduler getDiskStage() {
+        return mDiskStage;
+    }
+
+    /**
+     * @return 解码阶段的调度器，可读取队列深度和等待时间
+     */
+    public LoadScheduler getDecodeStage() {
+        return mDecodeStage;
+    }
+
+    /**
+     * 取消imageView上尚未完成的加载请求
+     * @param imageView 被复用的ImageView
+     */
+    public void cancelRequest(ImageView imageView) {
+        ImageRequest request = (ImageRequest) imageView.getTag(TAG_KEY_REQUEST);
+        if (request != null) {
+            request.cancel();
+        }
+        // View已换成占位图等其他内容时释放它之前显示的Bitmap
+        DisplayedBitmap displayed = mDisplayedBitmaps.get(imageView);
+        if (displayed != null && !isDisplaying(imageView, displayed.mBitmap)) {
+            mDisplayedBitmaps.remove(imageView);
+            mActiveResources.release(displayed.mKey, displayed.mBitmap);
+        }
+    }
+
+    private static boolean isDisplaying(ImageView imageView, Bitmap bitmap) {
+        Drawable drawable = imageView.getDrawable();
+        return drawable instanceof BitmapDrawable && ((BitmapDrawable) drawable).getBitmap() == bitmap;
+    }
+
+    /**
+     * 将请求从加载任务中移除，任务没有等待者时取消任务：
+     * 尚未开始的任务直接从线程池队列中移除，已开始的任务在网络、磁盘、解码各阶段之间停止
+     */
+    void cancel(ImageRequest request) {
+        LoadTask task;
+        synchronized (mInFlightTasks) {
+            task = mInFlightTasks.get(request.mKey);
+            if (task == null || !task.mWaiters.remove(request) || !task.mWaiters.isEmpty()) {
+                return;
+            }
+            task.mCancelled = true;
+            mInFlightTasks.remove(request.mKey);
+        }
+        synchronized (mPendingDiskTasks) {
+            if (mPendingDiskTasks.remove(task)) {
+                // 任务还在等待磁盘缓存打开，尚未持有任何资源
+                return;
+            }
+        }
+        LoadScheduler scheduler = task.mScheduler;
+        if (scheduler != null && scheduler.remove(task)) {
+            // 任务还在队列中，不会再被执行，由这里释放它持有的磁盘缓存资源
+            task.release();
+        }
+    }
+
+    /**
+     * 在当前线程中同步加载图片。返回的Bitmap已标记为使用中，不会被放入复用池或被复用解码覆盖，
+     * 不再使用时应调用releaseBitmap，之后内存缓存才能在淘汰它时复用；
+     * 未释放的Bitmap在调用方不再引用后随GC回收，不会进入复用池
+     * @return 加载出的Bitmap，失败时返回null
+     */
+    public Bitmap loadBitmap(String url, int reqWidth, int reqHeight) {
+        // 首先在内存缓存中查找，若找到返回，取出时已增加引用计数
+        Bitmap bitmap = loadBitmapFromMemCache(url, reqWidth, reqHeight);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        // 然后在磁盘缓存中查找，解码出的Bitmap放入内存缓存前已增加引用计数
+        bitmap = loadBitmapFromDiskCache(url, reqWidth, reqHeight);
+        if (bitmap == null) {
+            // 最后去网络中拉取
+            bitmap = loadBitmapFromHttp(url, reqWidth, reqHeight);
+        }
+        if (bitmap == null && !mIsDiskLruCacheCreated) {
+            // 直接下载的Bitmap不进入任何缓存，也就不会被放入复用池
+            Log.w(TAG, "encounter error, DiskLruCache is not created.");
+            bitmap = downLoadBitmapFromUrl(url);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 释放loadBitmap返回的Bitmap，调用后不能再使用它
+     * @param url 传给loadBitmap的url
+     * @param reqWidth 传给loadBitmap的宽度值
+     * @param reqHeight 传给loadBitmap的高度值
+     */
+    public void releaseBitmap(String url, int reqWidth, int reqHeight, Bitmap bitmap) {
+        mActiveResources.release(BitmapMemoryCache.getKey(hashKeyForDisk(url), reqWidth, reqHeight), bitmap);
+    }
+
+    /**
+     * 在主线程中显示Bitmap，View接管调用方已增加的引用计数，并释放它之前显示的Bitmap
+     * @param key bitmap在ActiveResources中的key
+     */
+    private void setImageBitmap(ImageView imageView, String key, Bitmap bitmap) {
+        imageView.setImageBitmap(bitmap);
+        DisplayedBitmap previous = mDisplayedBitmaps.put(imageView, new DisplayedBitmap(key, bitmap));
+        if (previous != null) {
+            mActiveResources.release(previous.mKey, previous.mBitmap);
+        }
+    }
+
+    /**
+     * @return 正在显示或等待显示的Bitmap个数
+     */
+    public int getActiveResourceCount() {
+        return mActiveResources.size();
+    }
+
+    /**
+     * @param metrics 加载过程的统计回调，如CountingMetrics，为null时不统计
+     */
+    public void setMetrics(ImageLoaderMetrics metrics) {
+        mMetrics = metrics != null ? metrics : new ImageLoaderMetrics.Adapter();
+    }
+
+    public ImageLoaderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return 内存缓存，可读取命中率等统计信息
+     */
+    public BitmapMemoryCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    /**
+     * @return 分块解码的图块缓存
+     */
+    public TileCache getTileCache() {
+        return mTileCache;
+    }
+
+    /**
+     * @return 原图编码数据的内存缓存
+     */
+    public EncodedMemoryCache getEncodedCache() {
+        return mEncodedCache;
+    }
+
+    /**
+     * @return Bitmap复用池，可读取命中率等统计信息
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    private static boolean isCancelled(LoadTask task) {
+        return task != null && task.mCancelled;
+    }
+
+    /**
+     * @return 被合并到已有加载任务上的重复请求数
+     */
+    public int getCoalescedRequestCount() {
+        return mCoalescedRequestCount.get();
+    }
+
+    /**
+     * @return 因请求合并而省下的网络下载次数
+     */
+    public int getAvoidedNetworkCount() {
+        return mAvoidedNetworkCount.get();
+    }
+
+    /**
+     * @return 因请求合并而省下的解码次数
+     */
+    public int getAvoidedDecodeCount() {
+        return mAvoidedDecodeCount.get();
+    }
+
+    /**
+     * View当前显示的Bitmap及其在ActiveResources中的key
+     */
+    private static class DisplayedBitmap {
+        final String mKey;
+        final Bitmap mBitmap;
+
+        DisplayedBitmap(String key, Bitmap bitmap) {
+            mKey = key;
+            mBitmap = bitmap;
+        }
+    }
+
+    /**
+     * 同一url的一次加载，所有等待该url的ImageView都会收到加载结果。
+     * 任务按 磁盘查找 -> 网络下载 -> 磁盘提交 -> 解码 的顺序在各阶段的线程池之间流转，
+     * 缓存命中时跳过网络下载和磁盘提交；网络下载时边下载边解码，解码成功则跳过解码阶段
+     */
+    private class LoadTask extends PrioritizedTask {
+        static final int STAGE_DISK_LOOKUP = 0;
+        static final int STAGE_NETWORK = 1;
+        static final int STAGE_DISK_COMMIT = 2;
+        static final int STAGE_DECODE = 3;
+
+        // 磁盘缓存的key
+        final String mKey;
+        // 内存缓存及mInFlightTasks的key
+        final String mMemoryKey;
+        final String mUrl;
+        final int mReqWidth;
+        final int mReqHeight;
+        final DecodePolicy mPolicy;
+        // 由mInFlightTasks加锁保护
+        final List<ImageRequest> mWaiters = new ArrayList<>();
+        volatile boolean mCancelled;
+        // 所有等待者都是只需写入磁盘缓存的预加载请求，由mInFlightTasks加锁保护
+        boolean mDiskOnly;
+        boolean mFromNetwork;
+        boolean mDecoded;
+        // 边下载边解码成功后结果已先行投递，磁盘提交阶段只需提交缓存
+        boolean mDelivered;
+        // 先行投递时磁盘写入尚未完成，提交后再汇报耗时，否则磁盘写入时间总是0
+        boolean mReportAfterCommit;
+        // 当前所处的阶段及其所在的调度器
+        int mStage;
+        volatile LoadScheduler mScheduler;
+        // 在阶段之间传递的磁盘缓存资源
+        DiskLruCache.Snapshot mSnapshot;
+        DiskLruCache.Editor mEditor;
+        // 内存缓存中同一url更大尺寸的Bitmap，解码阶段将其缩小后使用
+        Bitmap mLargerVariant;
+        String mLargerVariantKey;
+        // 磁盘缓存中已过期、需要条件请求重新验证的条目的元数据
+        CacheMetadata mStaleMetadata;
+        // 原图的元数据，写入缩略图缓存时一并保存
+        CacheMetadata mMetadata;
+        // 缩略图缓存中的条目，解码阶段优先从这里解码
+        DiskLruCache.Snapshot mThumbnail;
+        // 缩略图无法解码时改从原图加载
+        boolean mSkipThumbnail;
+        // 编码数据缓存中的条目，解码阶段直接从内存中解码
+        EncodedMemoryCache.Entry mEncoded;
+        // 编码数据无法解码时改从磁盘缓存加载
+        boolean mSkipEncoded;
+        // 各阶段的耗时，阶段之间依次执行，不需要同步
+        final LoadTimings mTimings;
+
+        LoadTask(String key, String memoryKey, String url, int reqWidth, int reqHeight, LoadPriority priority,
+                 DecodePolicy policy) {
+            super(priority);
+            mKey = key;
+            mMemoryKey = memoryKey;
+            mUrl = url;
+            mReqWidth = reqWidth;
+            mReqHeight = reqHeight;
+            mPolicy = policy;
+            mTimings = new LoadTimings(url);
+        }
+
+        @Override
+        protected void onDequeued(long waitTime) {
+            mTimings.mQueueWaitTime += waitTime;
+        }
+
+        /**
+         * 只有尚未开始下载的任务可以丢弃，已下载的数据和已在本地的数据不值得丢弃
+         */
+        @Override
+        protected boolean isSheddable() {
+            return mStage == STAGE_DISK_LOOKUP || mStage == STAGE_NETWORK;
+        }
+
+        /**
+         * @return 所有请求都已被取消，如View已被复用，但任务仍在阶段之间流转时返回true
+         */
+        @Override
+        protected boolean isObsolete() {
+            return mCancelled;
+        }
+
+        @Override
+        protected void onShed() {
+            release();
+            if (mCancelled) {
+                return;
+            }
+            int requests;
+            synchronized (mInFlightTasks) {
+                requests = mWaiters.size();
+            }
+            LoadScheduler scheduler = mScheduler;
+            mMetrics.onTaskShed(scheduler.getName(), requests, scheduler.getQueueSize());
+            deliver(null);
+        }
+
+        /**
+         * 转入下一阶段，ImageLoader已关闭、调度器拒绝任务时按失败结束
+         */
+        void moveTo(int stage, LoadScheduler scheduler) {
+            mStage = stage;
+            mScheduler = scheduler;
+            try {
+                scheduler.execute(this);
+            } catch (RejectedExecutionException e) {
+                // close()后工作线程仍可能在转入下一阶段，异常不能抛出线程池，否则进程崩溃
+                Log.w(TAG, "load task rejected, ImageLoader is closed: " + mUrl);
+                fail();
+            }
+        }
+
+        void setPriority(LoadPriority priority) {
+            LoadScheduler scheduler = mScheduler;
+            if (scheduler != null) {
+                scheduler.setPriority(this, priority);
+            } else {
+                // 尚未入队，可能正被其他线程放入磁盘阶段，在入队时生效
+                mRequestedPriority = priority;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled && !mDelivered) {
+                release();
+                return;
+            }
+            try {
+                switch (mStage) {
+                    case STAGE_DISK_LOOKUP:
+                        lookupDiskCache();
+                        break;
+                    case STAGE_NETWORK:
+                        download();
+                        break;
+                    case STAGE_DISK_COMMIT:
+                        commit();
+                        break;
+                    case STAGE_DECODE:
+                        decode();
+                        break;
+                }
+            } catch (IOException | IllegalStateException e) {
+                // ImageLoader被关闭后磁盘缓存会抛出IllegalStateException
+                e.printStackTrace();
+                fail();
+            }
+        }
+
+        /**
+         * 释放资源，尚未投递结果时投递null，先行投递的任务汇报耗时
+         */
+        private void fail() {
+            release();
+            if (!mDelivered) {
+                deliver(null);
+            }
+            reportAfterCommit();
+        }
+
+        private void lookupDiskCache() throws IOException {
+            Bitmap bitmap = mActiveResources.acquire(mMemoryKey);
+            if (bitmap == null) {
+                bitmap = mActiveResources.acquire(mMemoryKey, mMemoryCache);
+            }
+            if (bitmap != null) {
+                // 先为等待者增加引用计数再释放查找时增加的引用
+                deliver(bitmap);
+                mActiveResources.release(mMemoryKey, bitmap);
+                return;
+            }
+            if (mReqWidth > 0 && mReqHeight > 0) {
+                String variantKey = mMemoryCache.getLargerVariantKey(mKey, mReqWidth, mReqHeight);
+                // 缩小前标记为使用中，避免被淘汰后放入复用池
+                bitmap = variantKey != null ? mActiveResources.acquire(variantKey, mMemoryCache) : null;
+                if (bitmap != null) {
+                    mLargerVariant = bitmap;
+                    mLargerVariantKey = variantKey;
+                    moveTo(STAGE_DECODE, mDecodeStage);
+                    return;
+                }
+            }
+            if (lookupThumbnail() || lookupEncoded()) {
+                return;
+            }
+            if (mDiskLruCache != null) {
+                long start = System.nanoTime();
+                mSnapshot = mDiskLruCache.get(mKey);
+                mTimings.mDiskReadTime += System.nanoTime() - start;
+                if (mSnapshot != null) {
+                    mMetrics.onCacheHit(CacheTier.DISK);
+                    CacheMetadata metadata = CacheMetadata.decode(mSnapshot.getString(DISK_CACHE_INDEX_METADATA));
+                    mMetadata = metadata;
+                    if (metadata != null && metadata.needsRevalidation(System.currentTimeMillis())) {
+                        // 条目已过期，先发起条件请求，未修改时不必重新下载
+                        mStaleMetadata = metadata;
+                        release();
+                        moveTo(STAGE_NETWORK, mNetworkStage);
+                        return;
+                    }
+                    if (completeIfDiskOnly()) {
+                        release();
+                    } else {
+                        moveTo(STAGE_DECODE, mDecodeStage);
+                    }
+                    return;
+                }
+                mMetrics.onCacheMiss(CacheTier.DISK);
+            }
+            moveTo(STAGE_NETWORK, mNetworkStage);
+        }
+
+        /**
+         * @return 找到未过期的缩略图并转入解码阶段时返回true
+         */
+        private boolean lookupThumbnail() throws IOException {
+            if (mThumbnailCache == null || mSkipThumbnail || mReqWidth <= 0 || mReqHeight <= 0 || isDiskOnly()) {
+                return false;
+            }
+            long start = System.nanoTime();
+            DiskLruCache.Snapshot snapshot = mThumbnailCache.get(mMemoryKey);
+            mTimings.mDiskReadTime += System.nanoTime() - start;
+            if (snapshot == null) {
+                mMetrics.onCacheMiss(CacheTier.THUMBNAIL);
+                return false;
+            }
+            if (!isThumbnailFresh(snapshot)) {
+                // 原图已过期，缩略图可能已不是最新，按原图的流程重新验证
+                snapshot.close();
+                mMetrics.onCacheMiss(CacheTier.THUMBNAIL);
+                return false;
+            }
+            mMetrics.onCacheHit(CacheTier.THUMBNAIL);
+            mThumbnail = snapshot;
+            moveTo(STAGE_DECODE, mDecodeStage);
+            return true;
+        }
+
+        /**
+         * @return 找到未过期的编码数据并转入解码阶段时返回true
+         */
+        private boolean lookupEncoded() {
+            if (mSkipEncoded || isDiskOnly()) {
+                return false;
+            }
+            EncodedMemoryCache.Entry entry = mEncodedCache.get(mKey);
+            if (entry == null) {
+                mMetrics.onCacheMiss(CacheTier.ENCODED);
+                return false;
+            }
+            CacheMetadata metadata = entry.getMetadata();
+            if (metadata != null && metadata.needsRevalidation(System.currentTimeMillis())) {
+                // 原图已过期，按磁盘缓存的流程重新验证
+                mEncodedCache.release(entry);
+                mMetrics.onCacheMiss(CacheTier.ENCODED);
+                return false;
+            }
+            mMetrics.onCacheHit(CacheTier.ENCODED);
+            mEncoded = entry;
+            mMetadata = metadata;
+            moveTo(STAGE_DECODE, mDecodeStage);
+            return true;
+        }
+
+        private void download() throws IOException {
+            mFromNetwork = true;
+            mTimings.mFromNetwork = true;
+            long start = System.nanoTime();
+            if (mDiskLruCache == null) {
+                Log.w(TAG, "encounter error, DiskLruCache is not created.");
+                Bitmap bitmap = downLoadBitmapFromUrl(mUrl);
+                mTimings.mNetworkTime += System.nanoTime() - start;
+                mDecoded = bitmap != null;
+                onDecoded(bitmap);
+                deliver(bitmap);
+                return;
+            }
+            mEditor = mDiskLruCache.edit(mKey);
+            if (mEditor == null) {
+                // 该条目正在被其他线程写入，直接尝试从磁盘缓存解码
+                moveTo(STAGE_DECODE, mDecodeStage);
+                return;
+            }
+            NetworkResponse response;
+            try {
+                response = execute(mUrl, mStaleMetadata != null ? mStaleMetadata.getConditionalHeaders() : null);
+            } catch (IOException e) {
+                if (mStaleMetadata == null) {
+                    throw e;
+                }
+                // 重新验证失败时仍使用磁盘缓存中的旧数据
+                Log.w(TAG, "revalidate failed, use stale entry: " + e);
+                release();
+                moveTo(STAGE_DECODE, mDecodeStage);
+                return;
+            }
+            Bitmap bitmap;
+            try {
+                long now = System.currentTimeMillis();
+                if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    // 只刷新元数据，图片数据保持不变，提交后从磁盘缓存解码
+                    mMetadata = mStaleMetadata.refresh(response, now);
+                    mEditor.set(DISK_CACHE_INDEX_METADATA, mMetadata.encode());
+                    response.close();
+                    mTimings.mNetworkTime += System.nanoTime() - start;
+                    moveTo(STAGE_DISK_COMMIT, mDiskStage);
+                    return;
+                }
+                mMetadata = CacheMetadata.fromResponse(response, now);
+                mEditor.set(DISK_CACHE_INDEX_METADATA, mMetadata.encode());
+                // 原图已更新，内存中的旧编码数据不再有效
+                mEncodedCache.remove(mKey);
+            } catch (IOException e) {
+                response.close();
+                throw e;
+            }
+            if (isDiskOnly()) {
+                // 只需写入磁盘缓存，不必解码
+                bitmap = null;
+                if (!writeResponseToStream(mUrl, response, mEditor.newOutputStream(0), this)) {
+                    release();
+                }
+            } else {
+                bitmap = downLoadAndDecode(response);
+            }
+            // 边下载边解码时解码时间也计入网络阶段
+            mTimings.mNetworkTime += System.nanoTime() - start;
+            mMetrics.onBytesDownloaded(mTimings.mBytesDownloaded);
+            if (mEditor == null) {
+                // 下载失败或被取消
+                deliver(null);
+                return;
+            }
+            if (bitmap != null) {
+                // 先行投递结果，不必等待磁盘提交和再次读取
+                mDecoded = true;
+                onDecoded(bitmap);
+                acquireAndCache(mKey, mReqWidth, mReqHeight, bitmap);
+                mReportAfterCommit = true;
+                deliver(bitmap);
+                mDelivered = true;
+                saveThumbnail(mMemoryKey, mReqWidth, mReqHeight, bitmap, mTimings.mBytesDownloaded, mMetadata);
+                mActiveResources.release(mMemoryKey, bitmap);
+            }
+            moveTo(STAGE_DISK_COMMIT, mDiskStage);
+        }
+
+        /**
+         * 下载的同时把数据写入磁盘缓存的editor并从网络流中解码，
+         * 网络流读完后editor才可提交，下载失败时editor被放弃并置为null
+         * @param response 下载的响应，返回时已关闭
+         * @return 从网络流中解码出的Bitmap，无法从流中解码时返回null，此时在提交后从磁盘缓存解码
+         */
+        private Bitmap downLoadAndDecode(NetworkResponse response) {
+            TeeInputStream tee = null;
+            OutputStream os = null;
+            byte[] buffer = BUFFER_POOL.getBuf(IO_BUFFER_SIZE);
+            try {
+                long contentLength = response.getContentLength();
+                os = mEditor.newOutputStream(0);
+                tee = new TeeInputStream(response.getBody(), os, newCopyListener(mUrl, contentLength, this));
+                Bitmap bitmap = mImageResizer.decodeSampledBitmapFromStream(
+                        new BufferedInputStream(tee, IO_BUFFER_SIZE), mReqWidth, mReqHeight, mPolicy);
+                // 解码器可能没有读完整个流，把剩余的数据读完写入磁盘缓存
+                tee.drain(buffer);
+                // 解码器会吞掉读取中的异常，数据不完整时不能提交缓存，也不能使用解码结果
+                if (contentLength > 0 && tee.getCount() != contentLength) {
+                    throw new IOException("truncated response, expected " + contentLength
+                            + " bytes but read " + tee.getCount());
+                }
+                return bitmap;
+            } catch (IOException e) {
+                e.printStackTrace();
+                release();
+                return null;
+            } finally {
+                BUFFER_POOL.returnBuf(buffer);
+                try {
+                    if (os != null) {
+                        os.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                response.close();
+            }
+        }
+
+        private void commit() throws IOException {
+            long start = System.nanoTime();
+            mEditor.commit();
+            mEditor = null;
+            mJournalFlusher.onCommit();
+            mTimings.mDiskWriteTime += System.nanoTime() - start;
+            reportAfterCommit();
+            if (mDelivered || completeIfDiskOnly()) {
+                return;
+            }
+            mSnapshot = mDiskLruCache.get(mKey);
+            if (mSnapshot != null) {
+                moveTo(STAGE_DECODE, mDecodeStage);
+            } else {
+                deliver(null);
+            }
+        }
+
+        private void decode() throws IOException {
+            long start = System.nanoTime();
+            if (mLargerVariant != null) {
+                Bitmap bitmap = mImageResizer.scaleDownBitmap(mLargerVariant, mReqWidth, mReqHeight);
+                boolean scaled = bitmap != mLargerVariant;
+                String key = mMemoryKey;
+                if (scaled) {
+                    acquireAndCache(mMemoryKey, bitmap);
+                } else {
+                    key = mLargerVariantKey;
+                }
+                mTimings.mDecodeTime += System.nanoTime() - start;
+                // 先为等待者增加引用计数再释放，避免其间被放入复用池
+                deliver(key, bitmap);
+                release();
+                if (scaled) {
+                    mActiveResources.release(mMemoryKey, bitmap);
+                }
+                return;
+            }
+            if (mThumbnail != null) {
+                Bitmap bitmap = decodeThumbnail(mThumbnail, mMemoryKey, mReqWidth, mReqHeight, mPolicy);
+                mTimings.mDecodeTime += System.nanoTime() - start;
+                release();
+                if (bitmap == null) {
+                    // 缩略图无法解码，移除后改从原图加载
+                    mThumbnailCache.remove(mMemoryKey);
+                    mSkipThumbnail = true;
+                    moveTo(STAGE_DISK_LOOKUP, mDiskStage);
+                    return;
+                }
+                mDecoded = true;
+                onDecoded(bitmap);
+                deliver(bitmap);
+                mActiveResources.release(mMemoryKey, bitmap);
+                return;
+            }
+            if (mEncoded != null) {
+                int sourceLength = mEncoded.getLength();
+                Bitmap bitmap = decodeEncoded(mEncoded, mKey, mReqWidth, mReqHeight, mPolicy);
+                mTimings.mDecodeTime += System.nanoTime() - start;
+                release();
+                if (bitmap == null) {
+                    // 编码数据无法解码，已被移除，改从磁盘缓存加载
+                    mSkipEncoded = true;
+                    moveTo(STAGE_DISK_LOOKUP, mDiskStage);
+                    return;
+                }
+                mDecoded = true;
+                onDecoded(bitmap);
+                saveThumbnail(mMemoryKey, mReqWidth, mReqHeight, bitmap, sourceLength, mMetadata);
+                deliver(bitmap);
+                mActiveResources.release(mMemoryKey, bitmap);
+                return;
+            }
+            if (mSnapshot == null) {
+                mSnapshot = mDiskLruCache.get(mKey);
+            }
+            Bitmap bitmap = null;
+            if (mSnapshot != null) {
+                bitmap = decodeSnapshot(mSnapshot, mKey, mReqWidth, mReqHeight, mPolicy);
+                mDecoded = bitmap != null;
+                onDecoded(bitmap);
+                if (bitmap != null) {
+                    saveThumbnail(mMemoryKey, mReqWidth, mReqHeight, bitmap, mSnapshot.getLength(0), mMetadata);
+                }
+            }
+            mTimings.mDecodeTime += System.nanoTime() - start;
+            release();
+            deliver(bitmap);
+            if (bitmap != null) {
+                mActiveResources.release(mMemoryKey, bitmap);
+            }
+        }
+
+        private boolean isDiskOnly() {
+            synchronized (mInFlightTasks) {
+                return mDiskOnly;
+            }
+        }
+
+        /**
+         * 图片已在磁盘缓存中时，若所有等待者都只需写入磁盘缓存则结束任务
+         * @return 任务已结束返回true，否则需继续解码
+         */
+        private boolean completeIfDiskOnly() {
+            List<ImageRequest> waiters;
+            synchronized (mInFlightTasks) {
+                if (!mDiskOnly) {
+                    return false;
+                }
+                if (mInFlightTasks.get(mMemoryKey) == this) {
+                    mInFlightTasks.remove(mMemoryKey);
+                }
+                waiters = new ArrayList<>(mWaiters);
+            }
+            for (ImageRequest request : waiters) {
+                request.finish();
+            }
+            complete(true);
+            return true;
+        }
 
-    private static final ThreadFactory mThreadFactory = new ThreadFactory() {
-        private final AtomicInteger mCount = new AtomicInteger(1);
-        @Override
-        public Thread newThread(@NonNull Runnable r) {
-            return new Thread(r, "ImageLoader#" + mCount.getAndIncrement());
+        private void onDecoded(Bitmap bitmap) {
+            if (bitmap != null) {
+                mMetrics.onBytesDecoded(bitmap.getByteCount());
+            }
         }
-    };
 
-    public static final Executor THREAD_POOL_EXECUTOR = new ThreadPoolExecutor(CPU_COUNT + 1, CPU_COUNT * 2 + 1, 10L,
-            TimeUnit.SECONDS, new LinkedBlockingDeque<Runnable>(), mThreadFactory);
-
-    public ImageLoader(Context context) {
-        mContext = context.getApplicationContext();
-        int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
-        int cacheSize = maxMemory / 8;
-        // 创建内存缓存，大小为当前进程的可用内存的1/8
-        mMemoryCache = new LruCache<String, Bitmap>(cacheSize) {
-            @Override
-            protected int sizeOf(String key, Bitmap bitmap) {
-                return bitmap.getRowBytes() * bitmap.getHeight() / 1024;
+        /**
+         * 任务结束时汇报各阶段的耗时，总时间截止到结果投递
+         */
+        private void complete(boolean success) {
+            mTimings.mSuccess = success;
+            mTimings.mTotalTime = System.nanoTime() - mTimings.mStartTime;
+            if (!mReportAfterCommit) {
+                mMetrics.onLoadComplete(mTimings);
             }
-        };
-        // 获取缓存文件的缓存路径
-        File diskCacheDir = getDiskCacheDir(mContext, "bitmap");
-        if (!diskCacheDir.exists()) {
-            diskCacheDir.mkdirs();
         }
-        if (getUsableSpace(diskCacheDir) > DISK_CATCH_SIZE) {
-            try {
-                // 创建磁盘缓存，缓存大小为50M
-                mDiskLruCache = DiskLruCache.open(diskCacheDir, getAppVersionCode(mContext), 1, DISK_CATCH_SIZE);
-                // 磁盘缓存已创建 true
-                mIsDiskLruCacheCreated = true;
-            } catch (IOException e) {
-                e.printStackTrace();
+
+        /**
+         * 先行投递的任务在磁盘提交完成或失败后汇报耗时
+         */
+        private void reportAfterCommit() {
+            if (mReportAfterCommit) {
+                mReportAfterCommit = false;
+                mMetrics.onLoadComplete(mTimings);
             }
         }
-    }
 
-    private void addBitmapToMemoryCache(String key, Bitmap bitmap) {
-        if (getBitmapFromMemoryCache(key) == null) {
-            mMemoryCache.put(key, bitmap);
+        /**
+         * 释放在阶段之间传递的磁盘缓存资源
+         */
+        void release() {
+            if (mLargerVariant != null) {
+                mActiveResources.release(mLargerVariantKey, mLargerVariant);
+                mLargerVariant = null;
+                mLargerVariantKey = null;
+            }
+            if (mSnapshot != null) {
+                mSnapshot.close();
+                mSnapshot = null;
+            }
+            if (mThumbnail != null) {
+                mThumbnail.close();
+                mThumbnail = null;
+            }
+            if (mEncoded != null) {
+                mEncodedCache.release(mEncoded);
+                mEncoded = null;
+            }
+            if (mEditor != null) {
+                mEditor.abortUnlessCommitted();
+                mEditor = null;
+            }
         }
-    }
 
-    private Bitmap getBitmapFromMemoryCache(String key) {
-        return mMemoryCache.get(key);
-    }
-
-    /**
-     * @param url 图片的url地址
-     * @param imageView 显示加载到的图片的View
-     * @param reqWidth ImageView所需的宽度值
-     * @param reqHeight ImageView所需的高度值
-     */
-    public void bindBitmap(final String url, final ImageView imageView, final int reqWidth, final int reqHeight) {
-        String key = hashKeyForDisk(url);
-        imageView.setTag(TAG_KEY_URL, url);
-        Bitmap bitmap = loadBitmapFromMemCache(url);
-        if (bitmap != null) {
-            imageView.setImageBitmap(bitmap);
-            return;
+        private void deliver(Bitmap bitmap) {
+            deliver(mMemoryKey, bitmap);
         }
 
-        Runnable loadBitmapTask = new Runnable() {
-            @Override
-            public void run() {
-                Bitmap bitmap = loadBitmap(url, reqWidth, reqHeight);
-                if (bitmap != null) {
-                    LoaderResult result = new LoaderResult(imageView, url, bitmap);
-                    mMainHandler.obtainMessage(MESSAGE_POST_RESULT, result).sendToTarget();
+        /**
+         * @param key bitmap在内存缓存中的key
+         */
+        private void deliver(String key, Bitmap bitmap) {
+            List<ImageRequest> waiters;
+            synchronized (mInFlightTasks) {
+                if (mInFlightTasks.get(mMemoryKey) == this) {
+                    mInFlightTasks.remove(mMemoryKey);
                 }
+                waiters = new ArrayList<>(mWaiters);
+            }
+            for (ImageRequest request : waiters) {
+                request.finish();
+            }
+            complete(bitmap != null && !mCancelled);
+            if (bitmap == null || mCancelled) {
+                return;
+            }
+            int coalesced = waiters.size() - 1;
+            if (coalesced > 0) {
+                if (mDecoded) {
+                    mAvoidedDecodeCount.addAndGet(coalesced);
+                }
+                if (mFromNetwork) {
+                    mAvoidedNetworkCount.addAndGet(coalesced);
+                }
+            }
+            for (ImageRequest request : waiters) {
+                if (request.mImageView == null) {
+                    // 预加载请求，结果已进入内存缓存
+                    continue;
+                }
+                // 由主线程显示时转交给View，url已改变时释放
+                mActiveResources.acquire(key, bitmap);
+                mResultDispatcher.post(LoaderResult.obtain(request.mImageView, mUrl, bitmap, key));
             }
-        };
-        THREAD_POOL_EXECUTOR.execute(loadBitmapTask);
-    }
-
-    public Bitmap loadBitmap(String url, int reqWidth, int reqHeight) {
-        // 首先在内存缓存中查找，若找到返回
-        Bitmap bitmap = loadBitmapFromMemCache(url);
-        if (bitmap != null) {
-            return bitmap;
-        }
-        // 然后在磁盘缓存中查找，若找到返回
-        bitmap = loadBitmapFromDiskCache(url, reqWidth, reqHeight);
-        if (bitmap != null) {
-            return bitmap;
-        }
-        // 最后去网络中拉取
-        bitmap = loadBitmapFromHttp(url, reqWidth, reqHeight);
-        if (bitmap == null && !mIsDiskLruCacheCreated) {
-            Log.w(TAG, "encounter error, DiskLruCache is not created.");
-            bitmap = downLoadBitmapFromUrl(url);
         }
-        return bitmap;
     }
 
     private Bitmap downLoadBitmapFromUrl(String urlStr) {
         Bitmap bitmap = null;
-        HttpURLConnection connection = null;
-        BufferedInputStream bis = null;
+        NetworkResponse response = null;
+        byte[] data = null;
         try {
-            final URL url = new URL(urlStr);
-            connection = (HttpURLConnection) url.openConnection();
-            bis = new BufferedInputStream(connection.getInputStream(), 8 * 1024);
-            bitmap = BitmapFactory.decodeStream(bis);
+            response = execute(urlStr, null);
+            long contentLength = response.getContentLength();
+            BufferedInputStream bis = new BufferedInputStream(response.getBody(), IO_BUFFER_SIZE);
+            if (contentLength > 0 && contentLength <= MAX_PREALLOCATE_SIZE) {
+                // 已知长度时按Content-Length一次读入复用的数组再解码
+                data = BUFFER_POOL.getBuf((int) contentLength);
+                int length = IoUtils.readFully(bis, data, (int) contentLength);
+                bitmap = BitmapFactory.decodeByteArray(data, 0, length);
+            } else {
+                bitmap = BitmapFactory.decodeStream(bis);
+            }
         } catch (IOException e) {
             e.printStackTrace();
             Log.e(TAG, "Error in downloadBitmap:" + e);
         } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
-            if (bis != null) {
-                try {
-                    bis.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            BUFFER_POOL.returnBuf(data);
+            if (response != null) {
+                response.close();
             }
         }
         return bitmap;
@@ -207,45 +1561,163 @@ public class ImageLoader {
             throw new RuntimeException("can not visit network from UI Thread!");
         }
 
+        awaitDiskCache();
         if (mDiskLruCache == null) {
             return null;
         }
 
-        String key = hashKeyForDisk(url);
         try {
-            DiskLruCache.Editor editor = mDiskLruCache.edit(key);
-            if (editor != null) {
-                OutputStream outputStream = editor.newOutputStream(0);
-                if (downLoadUrlToStream(url, outputStream)) {
-                    editor.commit();
-                } else {
-                    editor.abort();
+            downloadToDiskCache(url, hashKeyForDisk(url));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return loadBitmapFromDiskCache(url, reqWidth, reqHeight);
+    }
+
+    /**
+     * 在当前线程中下载url并写入磁盘缓存，条目正在被其他线程写入时直接返回
+     * @param key 磁盘缓存的key
+     */
+    private void downloadToDiskCache(String url, String key) throws IOException {
+        DiskLruCache.Editor editor = mDiskLruCache.edit(key);
+        if (editor == null) {
+            return;
+        }
+        NetworkResponse response = null;
+        try {
+            response = execute(url, null);
+            editor.set(DISK_CACHE_INDEX_METADATA,
+                    CacheMetadata.fromResponse(response, System.currentTimeMillis()).encode());
+            mEncodedCache.remove(key);
+        } catch (IOException e) {
+            if (response != null) {
+                response.close();
+            }
+            editor.abort();
+            throw e;
+        }
+        if (writeResponseToStream(url, response, editor.newOutputStream(0), null)) {
+            editor.commit();
+            // 只有成功的提交计入刷新阈值
+            mJournalFlusher.onCommit();
+        } else {
+            editor.abort();
+        }
+    }
+
+    /**
+     * 以分块模式打开大图：先在网络阶段确保图片已在磁盘缓存中，再在解码阶段打开区域解码器并解码预览，
+     * 之后只解码可见的图块。需在主线程中调用
+     * @param url 图片的url地址
+     * @param previewWidth 预览所需的宽度值
+     * @param previewHeight 预览所需的高度值
+     * @param listener 预览和图块就绪的回调，在主线程中调用
+     * @return 分块图片，不再使用时需调用recycle()
+     */
+    public TiledImage openTiledImage(final String url, final int previewWidth, final int previewHeight,
+                                     TiledImage.Listener listener) {
+        final TiledImage image = new TiledImage(mTiledImageCount.incrementAndGet(), url, mImageResizer, mTileCache,
+                mDecodeStage, mMainHandler, listener);
+        final String key = hashKeyForDisk(url);
+        mNetworkStage.execute(new PrioritizedTask(LoadPriority.VISIBLE) {
+            @Override
+            public void run() {
+                if (image.isRecycled()) {
+                    return;
+                }
+                awaitDiskCache();
+                if (mDiskLruCache == null) {
+                    Log.w(TAG, "encounter error, DiskLruCache is not created.");
+                    image.fail();
+                    return;
+                }
+                try {
+                    DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
+                    if (snapshot != null) {
+                        snapshot.close();
+                    } else {
+                        downloadToDiskCache(url, key);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    image.fail();
+                    return;
                 }
-                mDiskLruCache.flush();
+                mDecodeStage.execute(new PrioritizedTask(LoadPriority.VISIBLE) {
+                    @Override
+                    public void run() {
+                        if (!image.isRecycled() && !openTiledImage(image, key, previewWidth, previewHeight)) {
+                            image.fail();
+                        }
+                    }
+                });
+            }
+        });
+        return image;
+    }
+
+    /**
+     * @return 区域解码器创建成功并解码出预览时返回true，磁盘缓存条目交由image持有
+     */
+    private boolean openTiledImage(TiledImage image, String key, int previewWidth, int previewHeight) {
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            snapshot = mDiskLruCache.get(key);
+            if (snapshot == null) {
+                return false;
+            }
+            FileDescriptor fileDescriptor = ((FileInputStream) snapshot.getInputStream(0)).getFD();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+            Bitmap.Config config = mDecodePolicy.resolveConfig(options.outMimeType);
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(fileDescriptor, false);
+            if (image.open(decoder, snapshot, config, previewWidth, previewHeight)) {
+                snapshot = null;
+                return true;
             }
+            decoder.recycle();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
         }
-        return loadBitmapFromDiskCache(url, reqWidth, reqHeight);
+        return false;
     }
 
     private Bitmap loadBitmapFromDiskCache(String url, int reqWidth, int reqHeight) {
         if (Looper.myLooper() == Looper.getMainLooper()) {
             Log.w(TAG, "load bitmap from UI Thread, it's not recommended!");
         }
+        awaitDiskCache();
         if (mDiskLruCache == null) {
             return null;
         }
         Bitmap bitmap = null;
         String key = hashKeyForDisk(url);
         try {
+            bitmap = loadBitmapFromThumbnailCache(BitmapMemoryCache.getKey(key, reqWidth, reqHeight), reqWidth,
+                    reqHeight);
+            if (bitmap != null) {
+                return bitmap;
+            }
+            bitmap = loadBitmapFromEncodedCache(key, reqWidth, reqHeight);
+            if (bitmap != null) {
+                return bitmap;
+            }
             DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
             if (snapshot != null) {
-                FileInputStream fileInputStream = (FileInputStream) snapshot.getInputStream(0);
-                FileDescriptor fileDescriptor = fileInputStream.getFD();
-                bitmap = mImageResizer.decodeSampledBitmapFromFileDescriptor(fileDescriptor, reqWidth, reqHeight);
-                if (bitmap != null) {
-                    addBitmapToMemoryCache(key, bitmap);
+                try {
+                    bitmap = decodeSnapshot(snapshot, key, reqWidth, reqHeight, mDecodePolicy);
+                    if (bitmap != null) {
+                        saveThumbnail(BitmapMemoryCache.getKey(key, reqWidth, reqHeight), reqWidth, reqHeight,
+                                bitmap, snapshot.getLength(0),
+                                CacheMetadata.decode(snapshot.getString(DISK_CACHE_INDEX_METADATA)));
+                    }
+                } finally {
+                    snapshot.close();
                 }
             }
         } catch (IOException e) {
@@ -254,12 +1726,248 @@ public class ImageLoader {
         return bitmap;
     }
 
-    private Bitmap loadBitmapFromMemCache(String url) {
-        final String key = hashKeyForDisk(url);
-        Bitmap bitmap = getBitmapFromMemoryCache(key);
+    /**
+     * @param snapshot 磁盘缓存中的条目
+     * @param key 缓存的key
+     * @param policy 解码参数策略
+     * @return 按所需宽高解码出的Bitmap，解码成功后已增加引用计数并加入内存缓存，用完后需release
+     */
+    private Bitmap decodeSnapshot(DiskLruCache.Snapshot snapshot, String key, int reqWidth, int reqHeight,
+                                  DecodePolicy policy) throws IOException {
+        EncodedMemoryCache.Entry entry = readEncoded(snapshot, key);
+        if (entry != null) {
+            try {
+                return decodeEncoded(entry, key, reqWidth, reqHeight, policy);
+            } finally {
+                mEncodedCache.release(entry);
+            }
+        }
+        FileInputStream fileInputStream = (FileInputStream) snapshot.getInputStream(0);
+        FileDescriptor fileDescriptor = fileInputStream.getFD();
+        Bitmap bitmap = mImageResizer.decodeSampledBitmapFromFileDescriptor(fileDescriptor, reqWidth, reqHeight,
+                policy);
+        if (bitmap != null) {
+            acquireAndCache(key, reqWidth, reqHeight, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 把磁盘缓存条目中的原图整个读入内存并放入编码数据缓存，之后同一张图的其他尺寸不必再读取文件
+     * @return 已增加引用计数的条目，用完后必须释放，数据过大或读取不完整时返回null
+     */
+    private EncodedMemoryCache.Entry readEncoded(DiskLruCache.Snapshot snapshot, String key) throws IOException {
+        long length = snapshot.getLength(0);
+        if (length > Integer.MAX_VALUE || !mEncodedCache.accepts((int) length)) {
+            return null;
+        }
+        // 整张图的数组从编码数据缓存自己的池中取出，不占用IO缓冲区池
+        byte[] data = mEncodedCache.obtainBuffer((int) length);
+        InputStream in = snapshot.getInputStream(0);
+        int count = 0;
+        int read;
+        try {
+            while (count < length && (read = in.read(data, count, (int) length - count)) != -1) {
+                count += read;
+            }
+        } catch (IOException e) {
+            mEncodedCache.recycleBuffer(data);
+            throw e;
+        }
+        if (count != length) {
+            mEncodedCache.recycleBuffer(data);
+            return null;
+        }
+        CacheMetadata metadata = CacheMetadata.decode(snapshot.getString(DISK_CACHE_INDEX_METADATA));
+        return mEncodedCache.put(key, data, count, metadata);
+    }
+
+    /**
+     * @param entry 编码数据缓存中的条目，由调用方释放
+     * @param key 缓存的key
+     * @return 按所需宽高解码出的Bitmap，解码成功后已增加引用计数并加入内存缓存，用完后需release，
+     * 数据无法解码时从编码数据缓存中移除并返回null
+     */
+    private Bitmap decodeEncoded(EncodedMemoryCache.Entry entry, String key, int reqWidth, int reqHeight,
+                                 DecodePolicy policy) {
+        Bitmap bitmap = mImageResizer.decodeSampledBitmapFromByteArray(entry.getData(), 0, entry.getLength(),
+                reqWidth, reqHeight, policy);
+        if (bitmap != null) {
+            acquireAndCache(key, reqWidth, reqHeight, bitmap);
+        } else {
+            mEncodedCache.remove(key);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @param key 磁盘缓存的key，同时也是编码数据缓存的key
+     * @return 从未过期的编码数据中解码出的Bitmap，已增加引用计数，没有时返回null
+     */
+    private Bitmap loadBitmapFromEncodedCache(String key, int reqWidth, int reqHeight) {
+        EncodedMemoryCache.Entry entry = mEncodedCache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            CacheMetadata metadata = entry.getMetadata();
+            if (metadata != null && metadata.needsRevalidation(System.currentTimeMillis())) {
+                return null;
+            }
+            return decodeEncoded(entry, key, reqWidth, reqHeight, mDecodePolicy);
+        } finally {
+            mEncodedCache.release(entry);
+        }
+    }
+
+    /**
+     * @param memoryKey 内存缓存的key，同时也是缩略图缓存的key
+     * @return 从未过期的缩略图中解码出的Bitmap，已增加引用计数，没有时返回null
+     */
+    private Bitmap loadBitmapFromThumbnailCache(String memoryKey, int reqWidth, int reqHeight) throws IOException {
+        if (mThumbnailCache == null || reqWidth <= 0 || reqHeight <= 0) {
+            return null;
+        }
+        DiskLruCache.Snapshot snapshot = mThumbnailCache.get(memoryKey);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            if (!isThumbnailFresh(snapshot)) {
+                return null;
+            }
+            Bitmap bitmap = decodeThumbnail(snapshot, memoryKey, reqWidth, reqHeight, mDecodePolicy);
+            if (bitmap == null) {
+                mThumbnailCache.remove(memoryKey);
+            }
+            return bitmap;
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * @return 缩略图对应的原图尚未过期时返回true
+     */
+    private static boolean isThumbnailFresh(DiskLruCache.Snapshot snapshot) throws IOException {
+        CacheMetadata metadata = ThumbnailCache.getMetadata(snapshot);
+        return metadata == null || !metadata.needsRevalidation(System.currentTimeMillis());
+    }
+
+    /**
+     * @param snapshot 缩略图缓存中的条目
+     * @param memoryKey 内存缓存的key
+     * @return 解码出的Bitmap，解码成功后已增加引用计数并加入内存缓存，用完后需release
+     */
+    private Bitmap decodeThumbnail(DiskLruCache.Snapshot snapshot, String memoryKey, int reqWidth, int reqHeight,
+                                   DecodePolicy policy) throws IOException {
+        FileDescriptor fileDescriptor = ((FileInputStream) snapshot.getInputStream(0)).getFD();
+        Bitmap bitmap = mImageResizer.decodeSampledBitmapFromFileDescriptor(fileDescriptor, reqWidth, reqHeight,
+                policy);
+        if (bitmap != null) {
+            acquireAndCache(memoryKey, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 在磁盘阶段以最低优先级把解码结果压缩写入缩略图缓存，写入期间持有引用以免bitmap被放入复用池
+     * @param memoryKey 内存缓存的key
+     * @param sourceLength 原图的字节数
+     * @param metadata 原图的元数据，可为null
+     */
+    private void saveThumbnail(final String memoryKey, int reqWidth, int reqHeight, final Bitmap bitmap,
+                               long sourceLength, final CacheMetadata metadata) {
+        if (mThumbnailCache == null || reqWidth <= 0 || reqHeight <= 0 || sourceLength < THUMBNAIL_MIN_SOURCE_SIZE) {
+            return;
+        }
+        mActiveResources.acquire(memoryKey, bitmap);
+        try {
+            mDiskStage.execute(new PrioritizedTask(LoadPriority.BACKGROUND) {
+                @Override
+                protected boolean isSheddable() {
+                    return true;
+                }
+
+                @Override
+                protected void onShed() {
+                    mActiveResources.release(memoryKey, bitmap);
+                }
+
+                @Override
+                public void run() {
+                    try {
+                        mThumbnailCache.put(memoryKey, bitmap, metadata);
+                    } catch (IOException | IllegalStateException e) {
+                        // ImageLoader被关闭后磁盘缓存会抛出IllegalStateException
+                        e.printStackTrace();
+                    } finally {
+                        mActiveResources.release(memoryKey, bitmap);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // ImageLoader已关闭
+            mActiveResources.release(memoryKey, bitmap);
+        }
+    }
+
+    /**
+     * @return 已增加引用计数的Bitmap，没有时返回null
+     */
+    private Bitmap loadBitmapFromMemCache(String url, int reqWidth, int reqHeight) {
+        final String key = BitmapMemoryCache.getKey(hashKeyForDisk(url), reqWidth, reqHeight);
+        Bitmap bitmap = mActiveResources.acquire(key);
+        if (bitmap == null) {
+            bitmap = mActiveResources.acquire(key, mMemoryCache);
+        }
         return bitmap;
     }
 
+    /**
+     * 把尚未刷新的磁盘缓存提交写入journal，可在界面退到后台时调用
+     */
+    public void flush() {
+        if (mJournalFlusher != null) {
+            mJournalFlusher.flush();
+        }
+        if (mThumbnailCache != null) {
+            mThumbnailCache.flush();
+        }
+    }
+
+    /**
+     * 停止所有加载任务，刷新并关闭磁盘缓存，关闭后ImageLoader不可再使用
+     */
+    public void close() {
+        mContext.unregisterComponentCallbacks(mComponentCallbacks);
+        mMainHandler.removeCallbacks(mRegrowRunnable);
+        mNetworkStage.shutdown();
+        mDiskStage.shutdown();
+        mDecodeStage.shutdown();
+        synchronized (mPendingDiskTasks) {
+            // 磁盘缓存仍在打开时由打开的线程负责关闭
+            mClosed = true;
+            mPendingDiskTasks.clear();
+        }
+        // 打开磁盘缓存的任务可能已被移出队列，不再让等待的线程阻塞
+        mDiskCacheLatch.countDown();
+        if (mJournalFlusher != null) {
+            mJournalFlusher.close();
+        }
+        if (mDiskLruCache != null) {
+            try {
+                mDiskLruCache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (mThumbnailCache != null) {
+            mThumbnailCache.close();
+        }
+        mEncodedCache.evictAll();
+    }
+
     /**
      * @param context 上下文环境
      * @return 创建一个新的ImageLoader实例
@@ -274,65 +1982,106 @@ public class ImageLoader {
      * @return
      */
     public boolean downLoadUrlToStream(String urlString, OutputStream outputStream) {
-        HttpURLConnection connection = null;
-        BufferedOutputStream bos = null;
-        BufferedInputStream bis = null;
+        NetworkResponse response;
         try {
-            final URL uri = new URL(urlString);
-            connection = (HttpURLConnection) uri.openConnection();
-            bis = new BufferedInputStream(connection.getInputStream(), 8 * 1024);
-            bos = new BufferedOutputStream(outputStream, 8 * 1024);
-            int b;
-            while ((b = bis.read()) != -1) {
-                bos.write(b);
+            response = execute(urlString, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                outputStream.close();
+            } catch (IOException closeException) {
+                closeException.printStackTrace();
             }
-            return true;
+            return false;
+        }
+        return writeResponseToStream(urlString, response, outputStream, null);
+    }
+
+    /**
+     * 把响应体写入outputStream，返回时响应和outputStream都已关闭
+     * @param task 发起下载的任务，任务被取消时中止下载，可为null
+     */
+    private boolean writeResponseToStream(String urlString, NetworkResponse response, OutputStream outputStream,
+                                          LoadTask task) {
+        // 直接以缓冲区为单位批量读写，缓冲区从共享的池中获取
+        byte[] buffer = BUFFER_POOL.getBuf(IO_BUFFER_SIZE);
+        try {
+            long count = IoUtils.copy(response.getBody(), outputStream, buffer,
+                    newCopyListener(urlString, response.getContentLength(), task));
+            return count >= 0;
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+            BUFFER_POOL.returnBuf(buffer);
             try {
-                if (bos != null) {
-                    bos.close();
-                }
-                if (bis != null) {
-                    bis.close();
-                }
+                outputStream.close();
             } catch (final IOException e) {
                 e.printStackTrace();
             }
+            response.close();
         }
         return false;
     }
 
     /**
-     * @param key 待编码的字符串
-     * @return 经MD5编码后的字符串
+     * 通过当前的传输层发起请求，状态码不是2xx时关闭响应并抛出异常，
+     * 带有条件请求头时304响应也会返回
+     * @param headers 额外的请求头，可为null
      */
-    public String hashKeyForDisk(String key) {
-        String cacheKey;
-        try {
-            final MessageDigest mDigest = MessageDigest.getInstance("MD5");
-            mDigest.update(key.getBytes());
-            cacheKey = bytesToHexString(mDigest.digest());
-        } catch (NoSuchAlgorithmException e) {
-            cacheKey = String.valueOf(key.hashCode());
+    private NetworkResponse execute(String url, Map<String, String> headers) throws IOException {
+        NetworkResponse response = mTransport.execute(url, headers);
+        boolean notModified = headers != null && response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+        if (!response.isSuccessful() && !notModified) {
+            response.close();
+            throw new IOException("HTTP " + response.getCode() + " for " + url);
         }
-        return cacheKey;
+        return response;
     }
 
-    private String bytesToHexString(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < bytes.length; i++) {
-            String hex = Integer.toHexString(0xFF & bytes[i]);
-            if (hex.length() == 1) {
-                sb.append('0');
+    /**
+     * @param transport 下载所用的网络传输层，为null时恢复默认的UrlConnectionTransport。
+     *                  OkHttpTransport需要应用自行引入OkHttp，可先用OkHttpTransport.isAvailable检查
+     */
+    public void setTransport(NetworkTransport transport) {
+        mTransport = transport != null ? transport : new UrlConnectionTransport();
+    }
+
+    public NetworkTransport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * @return 下载时回调进度，并在任务被取消时中止下载的监听
+     */
+    private IoUtils.CopyListener newCopyListener(final String url, final long contentLength, final LoadTask task) {
+        final DownloadProgressListener progressListener = mProgressListener;
+        return new IoUtils.CopyListener() {
+            @Override
+            public boolean onBytesCopied(long bytesCopied) {
+                if (task != null) {
+                    task.mTimings.mBytesDownloaded = bytesCopied;
+                }
+                if (progressListener != null) {
+                    progressListener.onProgress(url, bytesCopied, contentLength);
+                }
+                return !isCancelled(task);
             }
-            sb.append(hex);
-        }
-        return sb.toString();
+        };
+    }
+
+    /**
+     * @param listener 下载进度回调，在下载线程中调用，为null时不回调
+     */
+    public void setDownloadProgressListener(DownloadProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    /**
+     * @param key 待编码的字符串
+     * @return 经MD5编码后的字符串
+     */
+    public String hashKeyForDisk(String key) {
+        return KEY_HASHER.hash(key);
     }
 
     /**
@@ -367,7 +2116,9 @@ public class ImageLoader {
         final String cachePath;
         if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())
                 || !Environment.isExternalStorageRemovable()) {
-            cachePath = mContext.getExternalCacheDir().getPath();
+            // 外部存储不可用或没有权限时getExternalCacheDir返回null，改用内部存储
+            File externalCacheDir = mContext.getExternalCacheDir();
+            cachePath = externalCacheDir != null ? externalCacheDir.getPath() : mContext.getCacheDir().getPath();
         } else {
             cachePath = mContext.getCacheDir().getPath();
         }
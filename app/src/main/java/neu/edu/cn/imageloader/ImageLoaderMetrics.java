@@ -0,0 +1,93 @@
+package neu.edu.cn.imageloader;
+
+/**
+ * Created by neuHenry on 2017/10/28.
+ * 加载过程的统计回调，注册到ImageLoader上后在加载线程或主线程中调用，实现需要足够轻量且线程安全
+ */
+
+public interface ImageLoaderMetrics {
+
+    /**
+     * @param tier 命中的缓存层级
+     */
+    void onCacheHit(CacheTier tier);
+
+    /**
+     * @param tier 未命中的缓存层级
+     */
+    void onCacheMiss(CacheTier tier);
+
+    /**
+     * @param bytes 一次下载的字节数
+     */
+    void onBytesDownloaded(long bytes);
+
+    /**
+     * @param bytes 一次解码得到的Bitmap占用的字节数
+     */
+    void onBytesDecoded(long bytes);
+
+    /**
+     * @param size 内存缓存当前占用，单位KB
+     * @param maxSize 内存缓存容量，单位KB
+     */
+    void onMemoryCacheSize(int size, int maxSize);
+
+    /**
+     * @param timings 一次加载任务结束时各阶段的耗时
+     */
+    void onLoadComplete(LoadTimings timings);
+
+    /**
+     * 内存预算因内存压力被调低或压力缓解后被调高
+     * @param previousBudget 调整前内存缓存的预算，单位KB
+     * @param budget 调整后内存缓存的预算，单位KB
+     * @param trimLevel 触发调整的onTrimMemory级别，压力缓解后的回升为-1
+     */
+    void onMemoryBudgetChanged(int previousBudget, int budget, int trimLevel);
+
+    /**
+     * 加载任务因阶段的队列已满被丢弃
+     * @param stage 阶段的名称
+     * @param requests 被丢弃任务上等待的请求数
+     * @param queueSize 丢弃后该阶段的队列长度
+     */
+    void onTaskShed(String stage, int requests, int queueSize);
+
+    /**
+     * 所有方法均为空实现，只需关心部分回调时继承该类
+     */
+    class Adapter implements ImageLoaderMetrics {
+        @Override
+        public void onCacheHit(CacheTier tier) {
+        }
+
+        @Override
+        public void onCacheMiss(CacheTier tier) {
+        }
+
+        @Override
+        public void onBytesDownloaded(long bytes) {
+        }
+
+        @Override
+        public void onBytesDecoded(long bytes) {
+        }
+
+        @Override
+        public void onMemoryCacheSize(int size, int maxSize) {
+        }
+
+        @Override
+        public void onLoadComplete(LoadTimings timings) {
+        }
+
+        @Override
+        public void onMemoryBudgetChanged(int previousBudget, int budget, int trimLevel) {
+        }
+
+        @Override
+        public void onTaskShed(String stage, int requests, int queueSize) {
+        }
+    }
+}
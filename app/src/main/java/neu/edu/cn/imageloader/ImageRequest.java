@@ -0,0 +1,65 @@
+package neu.edu.cn.imageloader;
+
+import android.widget.ImageView;
+
+/**
+ * Created by neuHenry on 2017/10/18.
+ * bindBitmap返回的请求句柄，可用于取消尚未完成的加载
+ */
+
+public class ImageRequest {
+
+    private final ImageLoader mImageLoader;
+
+    // 由url和所需宽高生成的内存缓存key
+    final String mKey;
+
+    final String mUrl;
+
+    final ImageView mImageView;
+
+    private volatile boolean mCancelled = false;
+
+    private volatile boolean mFinished = false;
+
+    ImageRequest(ImageLoader imageLoader, String key, String url, ImageView imageView) {
+        mImageLoader = imageLoader;
+        mKey = key;
+        mUrl = url;
+        mImageView = imageView;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return 显示图片的View，预加载请求返回null
+     */
+    public ImageView getImageView() {
+        return mImageView;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * 取消该请求，若加载任务已没有其他等待者，则一并取消加载任务
+     */
+    public void cancel() {
+        if (mCancelled || mFinished) {
+            return;
+        }
+        mCancelled = true;
+        mImageLoader.cancel(this);
+    }
+
+    void finish() {
+        mFinished = true;
+    }
+}
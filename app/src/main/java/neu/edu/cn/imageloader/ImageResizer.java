@@ -1,10 +1,17 @@
 package neu.edu.cn.imageloader;
 
+import android.annotation.TargetApi;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
 
 import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Created by neuHenry on 2017/10/10.
@@ -12,7 +19,32 @@ import java.io.FileDescriptor;
 
 public class ImageResizer {
 
+    private static final String TAG = "ImageResizer";
+
+    // 从流中解码时为读取图片头信息保留的回退长度
+    public static final int MARK_LIMIT = 256 * 1024;
+
+    private final BitmapPool mBitmapPool;
+
+    // 按密度缩放解码后为Bitmap设置的密度，使其按原始像素显示
+    private int mTargetDensity = 0;
+
     public ImageResizer() {
+        this(null);
+    }
+
+    /**
+     * @param bitmapPool 解码时复用Bitmap的缓存池，为null时不复用
+     */
+    public ImageResizer(BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * @param densityDpi 屏幕密度，按DecodePolicy精确缩放解码后会设置到Bitmap上
+     */
+    public void setTargetDensity(int densityDpi) {
+        mTargetDensity = densityDpi;
     }
 
     /**
@@ -39,12 +71,250 @@ public class ImageResizer {
      * @return 加载出的所需宽高值的Bitmap对象
      */
     public Bitmap decodeSampledBitmapFromFileDescriptor(FileDescriptor fd, int reqWidth, int reqHeight) {
+        return decodeSampledBitmapFromFileDescriptor(fd, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * @param policy 解码参数策略，为null时只按采样率解码
+     */
+    public Bitmap decodeSampledBitmapFromFileDescriptor(FileDescriptor fd, int reqWidth, int reqHeight,
+                                                       DecodePolicy policy) {
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFileDescriptor(fd, null, options);
+        applyDecodePolicy(options, reqWidth, reqHeight, policy);
+        Bitmap bitmap = null;
+        if (mBitmapPool != null && BitmapPool.isSupported()) {
+            addInBitmapOptions(options);
+            try {
+                bitmap = BitmapFactory.decodeFileDescriptor(fd, null, options);
+            } catch (IllegalArgumentException e) {
+                // 池中取出的Bitmap无法承载解码结果，放回缓存池后不复用重新解码
+                Log.w(TAG, "decode with inBitmap failed, retry without it: " + e);
+            }
+            if (bitmap == null) {
+                returnInBitmap(options);
+            }
+        }
+        if (bitmap == null) {
+            bitmap = BitmapFactory.decodeFileDescriptor(fd, null, options);
+        }
+        return finishDecode(bitmap, options, reqWidth, reqHeight, policy);
+    }
+
+    /**
+     * @param data 保存编码数据的数组
+     * @param offset 数据在数组中的起始位置
+     * @param length 数据长度
+     * @param reqWidth ImageView所需的宽度值
+     * @param reqHeight ImageView所需的高度值
+     * @param policy 解码参数策略，为null时只按采样率解码
+     * @return 加载出的所需宽高值的Bitmap对象
+     */
+    public Bitmap decodeSampledBitmapFromByteArray(byte[] data, int offset, int length, int reqWidth, int reqHeight,
+                                                   DecodePolicy policy) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, offset, length, options);
+        applyDecodePolicy(options, reqWidth, reqHeight, policy);
+        Bitmap bitmap = null;
+        if (mBitmapPool != null && BitmapPool.isSupported()) {
+            addInBitmapOptions(options);
+            try {
+                bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+            } catch (IllegalArgumentException e) {
+                // 池中取出的Bitmap无法承载解码结果，放回缓存池后不复用重新解码
+                Log.w(TAG, "decode with inBitmap failed, retry without it: " + e);
+            }
+            if (bitmap == null) {
+                returnInBitmap(options);
+            }
+        }
+        if (bitmap == null) {
+            bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+        }
+        return finishDecode(bitmap, options, reqWidth, reqHeight, policy);
+    }
+
+    /**
+     * 从只能顺序读取一遍的流中解码，读取图片头信息后通过mark/reset回退，
+     * 图片头超过MARK_LIMIT或无法复用inBitmap时返回null，由调用方改用其他方式解码
+     * @param is 支持mark/reset的输入流，如BufferedInputStream
+     * @param reqWidth ImageView所需的宽度值
+     * @param reqHeight ImageView所需的高度值
+     * @return 加载出的所需宽高值的Bitmap对象
+     */
+    public Bitmap decodeSampledBitmapFromStream(InputStream is, int reqWidth, int reqHeight) {
+        return decodeSampledBitmapFromStream(is, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * @param policy 解码参数策略，为null时只按采样率解码
+     */
+    public Bitmap decodeSampledBitmapFromStream(InputStream is, int reqWidth, int reqHeight, DecodePolicy policy) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        is.mark(MARK_LIMIT);
+        BitmapFactory.decodeStream(is, null, options);
+        try {
+            is.reset();
+        } catch (IOException e) {
+            Log.w(TAG, "image header exceeds mark limit, can not decode from stream: " + e);
+            return null;
+        }
+        applyDecodePolicy(options, reqWidth, reqHeight, policy);
+        if (mBitmapPool != null && BitmapPool.isSupported()) {
+            addInBitmapOptions(options);
+        }
+        try {
+            Bitmap bitmap = BitmapFactory.decodeStream(is, null, options);
+            if (bitmap == null) {
+                returnInBitmap(options);
+            }
+            return finishDecode(bitmap, options, reqWidth, reqHeight, policy);
+        } catch (IllegalArgumentException e) {
+            // 流已被读过，无法重新解码
+            Log.w(TAG, "decode stream with inBitmap failed: " + e);
+            returnInBitmap(options);
+            return null;
+        }
+    }
+
+    /**
+     * 根据图片头信息和解码策略计算采样率、像素格式和缩放比例
+     * @param options 已解码出图片头信息的参数
+     * @param policy 解码参数策略，为null时只计算采样率
+     */
+    private void applyDecodePolicy(BitmapFactory.Options options, int reqWidth, int reqHeight, DecodePolicy policy) {
         options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        if (policy == null) {
+            return;
+        }
+        options.inPreferredConfig = policy.resolveConfig(options.outMimeType);
+        int bytesPerPixel = BitmapPool.getBytesPerPixel(options.inPreferredConfig);
+        int maxBytes = policy.getMaxBytes();
+        if (maxBytes > 0) {
+            // 超出单张内存上限时继续加大采样率
+            while ((long) sampledSize(options.outWidth, options.inSampleSize)
+                    * sampledSize(options.outHeight, options.inSampleSize) * bytesPerPixel > maxBytes) {
+                options.inSampleSize *= 2;
+            }
+        }
+        if (policy.isExactSize() && reqWidth > 0 && reqHeight > 0) {
+            // 采样只能按2的幂次缩小，剩余部分通过密度缩放在解码时一并完成
+            int width = sampledSize(options.outWidth, options.inSampleSize);
+            int height = sampledSize(options.outHeight, options.inSampleSize);
+            float scale = Math.max((float) reqWidth / width, (float) reqHeight / height);
+            if (scale < 1f) {
+                options.inScaled = true;
+                options.inDensity = width;
+                options.inTargetDensity = Math.max(1, Math.round(width * scale));
+            }
+        }
+    }
+
+    /**
+     * 解码器没有按密度缩放时再缩放一次，并还原Bitmap的密度
+     */
+    private Bitmap finishDecode(Bitmap bitmap, BitmapFactory.Options options, int reqWidth, int reqHeight,
+                                DecodePolicy policy) {
+        if (bitmap == null || policy == null || !policy.isExactSize() || reqWidth <= 0 || reqHeight <= 0) {
+            return bitmap;
+        }
+        if (options.inDensity > 0 && mTargetDensity > 0) {
+            bitmap.setDensity(mTargetDensity);
+        }
+        Bitmap scaled = scaleDownBitmap(bitmap, reqWidth, reqHeight);
+        if (scaled != bitmap && mBitmapPool != null && !mBitmapPool.put(bitmap)) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    private static int sampledSize(int size, int sampleSize) {
+        return (size + sampleSize - 1) / sampleSize;
+    }
+
+    /**
+     * 从缓存池中取出可承载解码结果的Bitmap设置到inBitmap上，
+     * 并让解码出的Bitmap可变，以便被淘汰后能放回缓存池
+     * @param options 已计算好采样率的解码参数
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void addInBitmapOptions(BitmapFactory.Options options) {
+        options.inMutable = true;
+        int width = sampledSize(options.outWidth, options.inSampleSize);
+        int height = sampledSize(options.outHeight, options.inSampleSize);
+        if (options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0) {
+            float scale = (float) options.inTargetDensity / options.inDensity;
+            width = Math.round(width * scale);
+            height = Math.round(height * scale);
+        }
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        options.inBitmap = mBitmapPool.get(width, height, config);
+    }
+
+    /**
+     * 使用inBitmap解码失败时把它放回缓存池，之后不带inBitmap重新解码。
+     * 放不回去时回收，它没有被任何缓存或View持有
+     */
+    private void returnInBitmap(BitmapFactory.Options options) {
+        Bitmap inBitmap = options.inBitmap;
+        options.inBitmap = null;
+        if (inBitmap != null && !mBitmapPool.put(inBitmap)) {
+            inBitmap.recycle();
+        }
+    }
+
+    /**
+     * 解码大图中的一块区域，可复用缓存池中的Bitmap
+     * @param decoder 区域解码器
+     * @param region 原图坐标系中的区域
+     * @param sampleSize 采样率
+     * @param config 像素格式
+     * @return 解码出的Bitmap，失败时返回null
+     */
+    public Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region, int sampleSize, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        if (mBitmapPool != null && BitmapPool.isSupported()) {
+            options.inMutable = true;
+            options.inBitmap = mBitmapPool.get(sampledSize(region.width(), sampleSize),
+                    sampledSize(region.height(), sampleSize), config);
+            try {
+                Bitmap bitmap = decoder.decodeRegion(region, options);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "decode region with inBitmap failed, retry without it: " + e);
+            }
+            returnInBitmap(options);
+        }
+        return decoder.decodeRegion(region, options);
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * 把已解码的大图缩小到宽高都不小于所需宽高的最小尺寸，保持宽高比
+     * @param source 待缩小的Bitmap
+     * @param reqWidth ImageView所需的宽度值
+     * @param reqHeight ImageView所需的高度值
+     * @return 缩小后的Bitmap，无需缩小时返回source本身
+     */
+    public Bitmap scaleDownBitmap(Bitmap source, int reqWidth, int reqHeight) {
+        float scale = Math.max((float) reqWidth / source.getWidth(), (float) reqHeight / source.getHeight());
+        if (scale >= 1f) {
+            return source;
+        }
+        int width = Math.max(1, Math.round(source.getWidth() * scale));
+        int height = Math.max(1, Math.round(source.getHeight() * scale));
+        return Bitmap.createScaledBitmap(source, width, height, true);
     }
 
     /**
@@ -0,0 +1,67 @@
+package neu.edu.cn.imageloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Created by neuHenry on 2017/10/22.
+ * 流拷贝相关的工具方法
+ */
+
+public final class IoUtils {
+
+    /**
+     * 拷贝过程中的回调
+     */
+    public interface CopyListener {
+        /**
+         * @param bytesCopied 已拷贝的字节数
+         * @return 返回false时中止拷贝
+         */
+        boolean onBytesCopied(long bytesCopied);
+    }
+
+    private IoUtils() {
+    }
+
+    /**
+     * 以buffer为单位批量拷贝，不对流做额外的缓冲
+     * @param in 输入流
+     * @param out 输出流
+     * @param buffer 拷贝使用的缓冲区
+     * @param listener 每拷贝一个缓冲区回调一次，可为null
+     * @return 拷贝的总字节数，被listener中止时返回-1
+     */
+    public static long copy(InputStream in, OutputStream out, byte[] buffer, CopyListener listener)
+            throws IOException {
+        long count = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+            count += n;
+            if (listener != null && !listener.onBytesCopied(count)) {
+                return -1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param in 输入流
+     * @param buffer 读入的目标数组
+     * @param len 需要读取的字节数
+     * @return 实际读取的字节数，流提前结束时小于len
+     */
+    public static int readFully(InputStream in, byte[] buffer, int len) throws IOException {
+        int count = 0;
+        while (count < len) {
+            int n = in.read(buffer, count, len - count);
+            if (n == -1) {
+                break;
+            }
+            count += n;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,127 @@
+package neu.edu.cn.imageloader;
+
+import android.support.annotation.NonNull;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by neuHenry on 2017/10/24.
+ * 批量刷新DiskLruCache的journal：提交数达到阈值时立即刷新，否则在延迟一段时间后由后台线程统一刷新，
+ * 避免每次下载完成都刷新journal使工作线程在磁盘缓存的锁上排队
+ */
+
+public class JournalFlusher {
+
+    private final DiskLruCache[] mDiskLruCaches;
+
+    private final int mCommitThreshold;
+
+    private final long mFlushDelayMillis;
+
+    private final ScheduledExecutorService mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            return new Thread(r, "ImageLoader-journal");
+        }
+    });
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // 上次刷新后的提交数
+    private int mPendingCommits = 0;
+
+    private ScheduledFuture<?> mScheduledFlush;
+
+    private int mFlushCount = 0;
+
+    /**
+     * @param diskLruCache 需要刷新journal的磁盘缓存
+     * @param commitThreshold 提交数达到该值时立即刷新
+     * @param flushDelayMillis 提交后最迟多久刷新一次，单位毫秒
+     */
+    public JournalFlusher(DiskLruCache diskLruCache, int commitThreshold, long flushDelayMillis) {
+        this(new DiskLruCache[]{diskLruCache}, commitThreshold, flushDelayMillis);
+    }
+
+    /**
+     * @param diskLruCaches 需要一并刷新journal的多个磁盘缓存，如ShardedDiskCache的各个分片
+     */
+    public JournalFlusher(DiskLruCache[] diskLruCaches, int commitThreshold, long flushDelayMillis) {
+        mDiskLruCaches = diskLruCaches;
+        mCommitThreshold = commitThreshold;
+        mFlushDelayMillis = flushDelayMillis;
+    }
+
+    /**
+     * 每次成功提交或删除磁盘缓存条目后调用，放弃的编辑不应调用
+     */
+    public void onCommit() {
+        boolean flushNow;
+        synchronized (this) {
+            mPendingCommits++;
+            flushNow = mPendingCommits >= mCommitThreshold;
+            if (!flushNow && mScheduledFlush == null && !mTimer.isShutdown()) {
+                mScheduledFlush = mTimer.schedule(mFlushTask, mFlushDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * 立即刷新journal
+     */
+    public void flush() {
+        synchronized (this) {
+            if (mScheduledFlush != null) {
+                mScheduledFlush.cancel(false);
+                mScheduledFlush = null;
+            }
+            if (mPendingCommits == 0) {
+                return;
+            }
+            mPendingCommits = 0;
+            mFlushCount++;
+        }
+        for (DiskLruCache diskLruCache : mDiskLruCaches) {
+            try {
+                if (!diskLruCache.isClosed()) {
+                    diskLruCache.flush();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 刷新尚未写入的提交并停止后台线程，之后的提交不再自动刷新
+     */
+    public void close() {
+        // 与onCommit中的检查和schedule在同一把锁中，关闭后不会再有schedule抛出RejectedExecutionException
+        synchronized (this) {
+            mTimer.shutdown();
+        }
+        flush();
+    }
+
+    /**
+     * @return journal的实际刷新次数
+     */
+    public synchronized int getFlushCount() {
+        return mFlushCount;
+    }
+}
@@ -0,0 +1,112 @@
+package neu.edu.cn.imageloader;
+
+import android.support.v4.util.LruCache;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Created by neuHenry on 2017/10/26.
+ * 把url编码为磁盘缓存key(MD5的十六进制小写形式)。
+ * 每个线程复用自己的MessageDigest和缓冲区，最近用过的url直接从缓存中取出key，不再重复计算
+ */
+
+public class KeyHasher {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final int DIGEST_LENGTH = 16;
+
+    private final LruCache<String, String> mKeyCache;
+
+    private final ThreadLocal<State> mState = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    /**
+     * @param cacheSize 缓存的url数，为0时不缓存
+     */
+    public KeyHasher(int cacheSize) {
+        mKeyCache = cacheSize > 0 ? new LruCache<String, String>(cacheSize) : null;
+    }
+
+    /**
+     * @param url 待编码的字符串
+     * @return 经MD5编码后的字符串
+     */
+    public String hash(String url) {
+        if (mKeyCache == null) {
+            return mState.get().hash(url);
+        }
+        String key = mKeyCache.get(url);
+        if (key == null) {
+            key = mState.get().hash(url);
+            mKeyCache.put(url, key);
+        }
+        return key;
+    }
+
+    /**
+     * 每个线程独有的MessageDigest和缓冲区
+     */
+    private static class State {
+        private final MessageDigest mDigest;
+        private byte[] mInput = new byte[256];
+        private final byte[] mOutput = new byte[DIGEST_LENGTH];
+        private final char[] mHex = new char[DIGEST_LENGTH * 2];
+
+        State() {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                digest = null;
+            }
+            mDigest = digest;
+        }
+
+        String hash(String url) {
+            if (mDigest == null) {
+                return String.valueOf(url.hashCode());
+            }
+            int length = url.length();
+            if (isAscii(url, length)) {
+                // ASCII字符串的编码结果就是字符本身，直接写入复用的数组
+                if (mInput.length < length) {
+                    mInput = new byte[Math.max(length, mInput.length * 2)];
+                }
+                for (int i = 0; i < length; i++) {
+                    mInput[i] = (byte) url.charAt(i);
+                }
+                mDigest.update(mInput, 0, length);
+            } else {
+                mDigest.update(url.getBytes());
+            }
+            try {
+                mDigest.digest(mOutput, 0, DIGEST_LENGTH);
+            } catch (DigestException e) {
+                mDigest.reset();
+                return String.valueOf(url.hashCode());
+            }
+            for (int i = 0; i < DIGEST_LENGTH; i++) {
+                int b = mOutput[i] & 0xFF;
+                mHex[i * 2] = HEX_DIGITS[b >>> 4];
+                mHex[i * 2 + 1] = HEX_DIGITS[b & 0x0F];
+            }
+            return new String(mHex);
+        }
+
+        private static boolean isAscii(String s, int length) {
+            for (int i = 0; i < length; i++) {
+                if (s.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
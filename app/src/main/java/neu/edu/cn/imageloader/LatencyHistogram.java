@@ -0,0 +1,98 @@
+package neu.edu.cn.imageloader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created by neuHenry on 2017/10/28.
+ * 按2的幂次分桶的耗时直方图，记录时只做一次原子自增，可在生产环境中常开。
+ * 第0个桶记录小于1ms的值，第i个桶记录[2^(i-1), 2^i)ms之间的值
+ */
+
+public class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 24;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong mCount = new AtomicLong();
+
+    private final AtomicLong mSum = new AtomicLong();
+
+    /**
+     * @param millis 一次耗时，单位毫秒
+     */
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        int bucket = millis == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(millis));
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSum.addAndGet(millis);
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @return 平均耗时，单位毫秒
+     */
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * @param percentile 百分位，取值0~100
+     * @return 该百分位所在桶的上界，单位毫秒
+     */
+    public long getPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= target) {
+                return getUpperBound(i);
+            }
+        }
+        return getUpperBound(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * @return 各桶的计数，下标与桶的序号一致
+     */
+    public long[] getBuckets() {
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return buckets;
+    }
+
+    /**
+     * @return 第bucket个桶的上界，单位毫秒
+     */
+    public static long getUpperBound(int bucket) {
+        return 1L << bucket;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "{count=" + getCount() + ", mean=" + getMean() + "ms, p50=" + getPercentile(50)
+                + "ms, p99=" + getPercentile(99) + "ms}";
+    }
+}
@@ -0,0 +1,15 @@
+package neu.edu.cn.imageloader;
+
+/**
+ * Created by neuHenry on 2017/10/19.
+ * 加载任务的优先级，越靠前越先执行
+ */
+
+public enum LoadPriority {
+    // 当前屏幕上可见的图片
+    VISIBLE,
+    // 即将滑入屏幕的预加载
+    PREFETCH,
+    // 后台加载，可随时让路
+    BACKGROUND
+}
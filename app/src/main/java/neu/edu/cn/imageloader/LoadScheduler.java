@@ -0,0 +1,302 @@
+package neu.edu.cn.imageloader;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by neuHenry on 2017/10/19.
+ * 按优先级调度加载任务的线程池，排序规则由传入的Comparator决定，
+ * 同时统计队列深度和任务在队列中的等待时间，便于调整各阶段的线程数。
+ * 可以限制队列长度，队列已满时按ShedPolicy丢弃可丢弃的任务，避免快速滑动时队列无限增长
+ */
+
+public class LoadScheduler {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private final String mName;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Comparator<? super PrioritizedTask> mPolicy;
+
+    // 队列的最大长度，小于等于0时不限制
+    private volatile int mMaxQueueSize;
+
+    private volatile ShedPolicy mShedPolicy = ShedPolicy.DROP_LOWEST_PRIORITY;
+
+    // 保证检查队列长度和入队是原子的
+    private final Object mShedLock = new Object();
+
+    // 因队列已满被丢弃的任务数
+    private final AtomicLong mShedCount = new AtomicLong();
+
+    // 队列长度的最大值
+    private volatile int mPeakQueueSize;
+
+    // 已开始执行的任务数
+    private final AtomicLong mExecutedCount = new AtomicLong();
+
+    // 已开始执行的任务在队列中的总等待时间，单位纳秒
+    private final AtomicLong mTotalWaitTime = new AtomicLong();
+
+    // 单个任务的最长等待时间，单位纳秒
+    private volatile long mMaxWaitTime;
+
+    // 被替换后接收任务的调度器，由mShedLock加锁保护
+    private LoadScheduler mSuccessor;
+
+    /**
+     * @param policy 任务排序规则，如SchedulePolicy.LIFO
+     */
+    public LoadScheduler(Comparator<? super PrioritizedTask> policy) {
+        this("ImageLoader", CPU_COUNT + 1, policy);
+    }
+
+    /**
+     * @param name 线程名前缀
+     * @param poolSize 线程数，空闲超时后线程会被回收
+     * @param policy 任务排序规则
+     */
+    public LoadScheduler(final String name, int poolSize, final Comparator<? super PrioritizedTask> policy) {
+        mName = name;
+        mPolicy = policy;
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                return new Thread(r, name + "#" + mCount.getAndIncrement());
+            }
+        };
+        Comparator<Runnable> comparator = new Comparator<Runnable>() {
+            @Override
+            public int compare(Runnable lhs, Runnable rhs) {
+                return policy.compare((PrioritizedTask) lhs, (PrioritizedTask) rhs);
+            }
+        };
+        // 优先级队列是无界的，线程数不会超过核心线程数，因此核心线程数与最大线程数相同，并允许空闲回收
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, 10L, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(11, comparator), threadFactory) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                super.beforeExecute(t, r);
+                PrioritizedTask task = (PrioritizedTask) r;
+                long waitTime = System.nanoTime() - task.mEnqueueTime;
+                task.onDequeued(waitTime);
+                mExecutedCount.incrementAndGet();
+                mTotalWaitTime.addAndGet(waitTime);
+                if (waitTime > mMaxWaitTime) {
+                    mMaxWaitTime = waitTime;
+                }
+            }
+        };
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public void execute(PrioritizedTask task) {
+        LoadPriority requested = task.mRequestedPriority;
+        if (requested != null) {
+            task.mPriority = requested;
+            task.mRequestedPriority = null;
+        }
+        task.mSequence = mSequence.incrementAndGet();
+        task.mEnqueueTime = System.nanoTime();
+        PrioritizedTask victim = null;
+        LoadScheduler successor;
+        synchronized (mShedLock) {
+            successor = mSuccessor;
+            if (successor == null) {
+                victim = enqueue(task);
+            }
+        }
+        if (successor != null) {
+            // 已被替换，其他线程仍持有旧的引用时转交给新的调度器
+            successor.execute(task);
+            return;
+        }
+        int queueSize = getQueueSize();
+        if (queueSize > mPeakQueueSize) {
+            mPeakQueueSize = queueSize;
+        }
+        if (victim != null) {
+            mShedCount.incrementAndGet();
+            victim.onShed();
+        }
+    }
+
+    /**
+     * 在mShedLock中调用，队列已满时先丢弃一个任务再入队
+     * @return 被丢弃的任务，可能是task本身，没有丢弃时返回null
+     */
+    private PrioritizedTask enqueue(PrioritizedTask task) {
+        PrioritizedTask victim = null;
+        int maxQueueSize = mMaxQueueSize;
+        if (maxQueueSize > 0 && getQueueSize() >= maxQueueSize) {
+            victim = selectVictim(task);
+            if (victim != null && victim != task && !mExecutor.remove(victim)) {
+                // 已被工作线程取出，队列中已有空位
+                victim = null;
+            }
+        }
+        if (victim != task) {
+            mExecutor.execute(task);
+        }
+        return victim;
+    }
+
+    /**
+     * @param incoming 正在入队的任务
+     * @return 按ShedPolicy选出的需要丢弃的任务，没有可丢弃的任务时返回null，此时队列可暂时超出限制
+     */
+    private PrioritizedTask selectVictim(PrioritizedTask incoming) {
+        List<PrioritizedTask> candidates = new ArrayList<>();
+        for (Runnable r : mExecutor.getQueue()) {
+            PrioritizedTask task = (PrioritizedTask) r;
+            if (task.isSheddable()) {
+                candidates.add(task);
+            }
+        }
+        if (incoming.isSheddable()) {
+            candidates.add(incoming);
+        }
+        return candidates.isEmpty() ? null : mShedPolicy.selectVictim(candidates, mPolicy);
+    }
+
+    /**
+     * 限制队列的长度
+     * @param maxQueueSize 队列的最大长度，小于等于0时不限制
+     * @param policy 队列已满时选择丢弃哪个任务
+     */
+    public void setMaxQueueSize(int maxQueueSize, ShedPolicy policy) {
+        mMaxQueueSize = maxQueueSize;
+        mShedPolicy = policy;
+    }
+
+    public int getMaxQueueSize() {
+        return mMaxQueueSize;
+    }
+
+    public ShedPolicy getShedPolicy() {
+        return mShedPolicy;
+    }
+
+    /**
+     * @return 任务尚未开始执行并已从队列中移除时返回true
+     */
+    public boolean remove(PrioritizedTask task) {
+        return mExecutor.remove(task);
+    }
+
+    /**
+     * 调整任务的优先级，已在队列中的任务会按新的优先级重新排队。
+     * 任务不在本队列中时（正在执行或正被转入其他阶段）不能直接修改，新的优先级在下次入队时生效
+     * @param task 待调整的任务
+     * @param priority 新的优先级
+     */
+    public void setPriority(PrioritizedTask task, LoadPriority priority) {
+        if (task.mPriority == priority && task.mRequestedPriority == null) {
+            return;
+        }
+        if (mExecutor.remove(task)) {
+            task.mPriority = priority;
+            task.mRequestedPriority = null;
+            execute(task);
+        } else {
+            task.mRequestedPriority = priority;
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return 队列中等待执行的任务数
+     */
+    public int getQueueSize() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * @return 队列长度的最大值
+     */
+    public int getPeakQueueSize() {
+        return mPeakQueueSize;
+    }
+
+    /**
+     * @return 因队列已满被丢弃的任务数
+     */
+    public long getShedCount() {
+        return mShedCount.get();
+    }
+
+    /**
+     * @return 正在执行的任务数
+     */
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    /**
+     * @return 已开始执行的任务数
+     */
+    public long getExecutedCount() {
+        return mExecutedCount.get();
+    }
+
+    /**
+     * @return 任务在队列中的平均等待时间，单位毫秒
+     */
+    public long getAverageWaitTimeMillis() {
+        long count = mExecutedCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(mTotalWaitTime.get() / count);
+    }
+
+    /**
+     * @return 任务在队列中的最长等待时间，单位毫秒
+     */
+    public long getMaxWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mMaxWaitTime);
+    }
+
+    @Override
+    public String toString() {
+        return mName + "{queue=" + getQueueSize() + ", peakQueue=" + getPeakQueueSize() + ", shed=" + getShedCount()
+                + ", active=" + getActiveCount()
+                + ", executed=" + getExecutedCount() + ", avgWait=" + getAverageWaitTimeMillis()
+                + "ms, maxWait=" + getMaxWaitTimeMillis() + "ms}";
+    }
+
+    /**
+     * 由successor取代当前调度器：队列中尚未执行的任务转入successor，之后入队的任务也转交给它，
+     * 正在执行的任务执行完后线程结束
+     */
+    public void handOff(LoadScheduler successor) {
+        List<Runnable> pending = new ArrayList<>();
+        synchronized (mShedLock) {
+            mSuccessor = successor;
+            mExecutor.shutdown();
+            mExecutor.getQueue().drainTo(pending);
+        }
+        for (Runnable r : pending) {
+            successor.execute((PrioritizedTask) r);
+        }
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,84 @@
+package neu.edu.cn.imageloader;
+
+/**
+ * Created by neuHenry on 2017/10/28.
+ * 一次加载任务在各阶段花费的时间，单位纳秒。边下载边解码时解码时间计入网络时间
+ */
+
+public class LoadTimings {
+
+    final String mUrl;
+
+    final long mStartTime = System.nanoTime();
+
+    long mQueueWaitTime;
+
+    long mNetworkTime;
+
+    long mDiskWriteTime;
+
+    long mDiskReadTime;
+
+    long mDecodeTime;
+
+    long mTotalTime;
+
+    long mBytesDownloaded;
+
+    boolean mFromNetwork;
+
+    boolean mSuccess;
+
+    LoadTimings(String url) {
+        mUrl = url;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return 在各阶段队列中等待的总时间
+     */
+    public long getQueueWaitTime() {
+        return mQueueWaitTime;
+    }
+
+    public long getNetworkTime() {
+        return mNetworkTime;
+    }
+
+    public long getDiskWriteTime() {
+        return mDiskWriteTime;
+    }
+
+    public long getDiskReadTime() {
+        return mDiskReadTime;
+    }
+
+    public long getDecodeTime() {
+        return mDecodeTime;
+    }
+
+    /**
+     * @return 从任务创建到结果投递的总时间
+     */
+    public long getTotalTime() {
+        return mTotalTime;
+    }
+
+    public long getBytesDownloaded() {
+        return mBytesDownloaded;
+    }
+
+    public boolean isFromNetwork() {
+        return mFromNetwork;
+    }
+
+    /**
+     * @return 是否成功得到了Bitmap，被取消或失败时为false
+     */
+    public boolean isSuccess() {
+        return mSuccess;
+    }
+}
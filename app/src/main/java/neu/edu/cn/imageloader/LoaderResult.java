@@ -8,14 +8,71 @@ import android.widget.ImageView;
  */
 
 public class LoaderResult {
+
+    // 回收池的最大长度，约为一屏同时完成的结果数
+    private static final int MAX_POOL_SIZE = 32;
+
+    private static final Object sPoolSync = new Object();
+
+    private static LoaderResult sPool;
+
+    private static int sPoolSize = 0;
+
+    // 回收池中的下一个对象
+    private LoaderResult mNext;
+
     public ImageView imageView;
     public String url;
     public Bitmap bitmap;
+    // bitmap在ActiveResources中的key，显示时由View接管其引用计数
+    public String key;
 
     public LoaderResult(ImageView imageView, String url, Bitmap bitmap) {
+        this(imageView, url, bitmap, null);
+    }
+
+    public LoaderResult(ImageView imageView, String url, Bitmap bitmap, String key) {
         this.imageView = imageView;
         this.url = url;
         this.bitmap = bitmap;
+        this.key = key;
+    }
+
+    /**
+     * 从回收池中取出一个对象，池为空时新建
+     */
+    public static LoaderResult obtain(ImageView imageView, String url, Bitmap bitmap, String key) {
+        synchronized (sPoolSync) {
+            if (sPool != null) {
+                LoaderResult result = sPool;
+                sPool = result.mNext;
+                result.mNext = null;
+                sPoolSize--;
+                result.imageView = imageView;
+                result.url = url;
+                result.bitmap = bitmap;
+                result.key = key;
+                return result;
+            }
+        }
+        return new LoaderResult(imageView, url, bitmap, key);
+    }
+
+    /**
+     * 清空引用并放回回收池，之后不能再使用
+     */
+    public void recycle() {
+        imageView = null;
+        url = null;
+        bitmap = null;
+        key = null;
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                mNext = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
     }
 
     public ImageView getImageView() {
@@ -41,4 +98,12 @@ public class LoaderResult {
     public void setBitmap(Bitmap bitmap) {
         this.bitmap = bitmap;
     }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
 }
@@ -4,8 +4,10 @@ import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.util.DisplayMetrics;
+import android.util.Log;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -20,6 +22,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class MainActivity extends AppCompatActivity implements AbsListView.OnScrollListener {
+
+    private static final String TAG = "MainActivity";
+
+    // 是否在滑动过程中预加载即将滑入屏幕的图片
+    private static final boolean PREFETCH_ENABLED = true;
     // 网格布局
     private GridView mGridView;
 
@@ -35,6 +42,16 @@ public class MainActivity extends AppCompatActivity implements AbsListView.OnScr
 
     private int mImageWidth;
 
+    // 上一次onScroll时的第一个可见位置及时间，用于估算滑动方向和速度
+    private int mLastFirstVisibleItem = -1;
+
+    private long mLastScrollTime;
+
+    // 停止滑动后绑定的格子数，以及其中未能立即显示图片、仍显示img_default的格子数
+    private int mIdleBindCount;
+
+    private int mIdlePlaceholderCount;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -44,9 +61,23 @@ public class MainActivity extends AppCompatActivity implements AbsListView.OnScr
         myGridViewAdapter = new MyGridViewAdapter();
         mGridView.setAdapter(myGridViewAdapter);
         mImageLoader = ImageLoader.build(MainActivity.this);
+        mImageLoader.setMetrics(new CountingMetrics());
         mGridView.setOnScrollListener(this);
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // 退到后台时把批量提交的磁盘缓存写入journal
+        mImageLoader.flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mImageLoader.close();
+    }
+
     /**
      * 初始化数据
      */
@@ -186,10 +217,16 @@ public class MainActivity extends AppCompatActivity implements AbsListView.OnScr
             final String tag = (String) imageView.getTag();
             if (!url.equals(tag)) {
                 imageView.setImageDrawable(getApplicationContext().getResources().getDrawable(R.drawable.img_default));
+                // View被复用，取消之前的加载，避免为已划出屏幕的格子继续下载和解码
+                mImageLoader.cancelRequest(imageView);
             }
             if (mIsGridViewIdle && mCanGetBitmapFromNetWork) {
                 imageView.setTag(url);
-                mImageLoader.bindBitmap(url, imageView, mImageWidth, mImageWidth);
+                ImageRequest request = mImageLoader.bindBitmap(url, imageView, mImageWidth, mImageWidth);
+                mIdleBindCount++;
+                if (!request.isFinished()) {
+                    mIdlePlaceholderCount++;
+                }
             }
             return convertView;
         }
@@ -216,14 +253,38 @@ public class MainActivity extends AppCompatActivity implements AbsListView.OnScr
     public void onScrollStateChanged(AbsListView view, int scrollState) {
         if (scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE) {
             mIsGridViewIdle = true;
+            mIdleBindCount = 0;
+            mIdlePlaceholderCount = 0;
             myGridViewAdapter.notifyDataSetChanged();
         } else {
+            if (mIsGridViewIdle) {
+                // 再次开始滑动时输出上一次停止期间的统计
+                Log.d(TAG, "prefetch " + (PREFETCH_ENABLED ? "on" : "off") + ", placeholders after idle: "
+                        + mIdlePlaceholderCount + "/" + mIdleBindCount + ", memory cache: " + mImageLoader.getMemoryCache());
+                Log.d(TAG, "metrics: " + mImageLoader.getMetrics());
+            }
             mIsGridViewIdle = false;
         }
     }
 
     @Override
     public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
-
+        if (!PREFETCH_ENABLED || !mCanGetBitmapFromNetWork || mImageLoader == null
+                || firstVisibleItem == mLastFirstVisibleItem) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        int direction = 1;
+        float velocity = 0;
+        if (mLastFirstVisibleItem >= 0) {
+            direction = firstVisibleItem >= mLastFirstVisibleItem ? 1 : -1;
+            long elapsed = Math.max(1, now - mLastScrollTime);
+            velocity = Math.abs(firstVisibleItem - mLastFirstVisibleItem) * 1000f / elapsed;
+        }
+        mLastFirstVisibleItem = firstVisibleItem;
+        mLastScrollTime = now;
+        // 快速滑动时只预热磁盘缓存，缓慢滑动或静止时同时解码到内存缓存
+        mImageLoader.prefetch(mImageUrlList, firstVisibleItem, visibleItemCount, direction, velocity,
+                mImageWidth, mImageWidth, mIsGridViewIdle);
     }
 }
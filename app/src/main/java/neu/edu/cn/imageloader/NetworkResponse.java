@@ -0,0 +1,44 @@
+package neu.edu.cn.imageloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Created by neuHenry on 2017/10/30.
+ * NetworkTransport返回的响应，关闭后连接归还给连接池
+ */
+
+public abstract class NetworkResponse implements Closeable {
+
+    /**
+     * @return HTTP状态码
+     */
+    public abstract int getCode();
+
+    /**
+     * @return 响应体的长度，未知时返回-1
+     */
+    public abstract long getContentLength();
+
+    /**
+     * @return 响应头的值，不存在时返回null
+     */
+    public abstract String getHeader(String name);
+
+    public abstract InputStream getBody() throws IOException;
+
+    /**
+     * @return 状态码为2xx时返回true
+     */
+    public boolean isSuccessful() {
+        int code = getCode();
+        return code >= 200 && code < 300;
+    }
+
+    /**
+     * 关闭响应体并释放该请求占用的并发名额，读完响应体后关闭的连接可被复用
+     */
+    @Override
+    public abstract void close();
+}
@@ -0,0 +1,20 @@
+package neu.edu.cn.imageloader;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Created by neuHenry on 2017/10/30.
+ * 下载图片所用的网络传输层，实现需要线程安全，并尽量复用连接
+ */
+
+public interface NetworkTransport {
+
+    /**
+     * 发起GET请求，返回时响应头已读取完毕，响应体需由调用方读取并关闭
+     * @param url 图片的url地址
+     * @param headers 额外的请求头，可为null
+     * @return 响应，使用完毕后必须调用close()
+     */
+    NetworkResponse execute(String url, Map<String, String> headers) throws IOException;
+}
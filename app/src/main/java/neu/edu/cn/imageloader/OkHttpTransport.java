@@ -0,0 +1,145 @@
+package neu.edu.cn.imageloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Created by neuHenry on 2017/10/30.
+ * 基于OkHttp的传输层。HTTPS服务器支持HTTP/2时，同一主机的所有请求复用一条连接多路传输，
+ * 否则使用OkHttp的keep-alive连接池。OkHttp是可选依赖，应用需自行引入，使用前可用isAvailable检查
+ */
+
+public class OkHttpTransport implements NetworkTransport {
+
+    // 连接池中保留的空闲连接数及其存活时间
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private final OkHttpClient mClient;
+
+    private final HostLimiter mHostLimiter;
+
+    /**
+     * 只通过反射检查，调用时不会加载OkHttp的类
+     * @return 应用引入了OkHttp时返回true
+     */
+    public static boolean isAvailable() {
+        try {
+            Class.forName("okhttp3.OkHttpClient", false, OkHttpTransport.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    public OkHttpTransport() {
+        this(UrlConnectionTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS, UrlConnectionTransport.DEFAULT_READ_TIMEOUT_MILLIS,
+                UrlConnectionTransport.DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * @param connectTimeout 连接超时，单位毫秒
+     * @param readTimeout 读取超时，单位毫秒
+     * @param maxRequestsPerHost 每个主机同时进行的最大请求数，HTTP/2下即单条连接上的最大并发流数
+     */
+    public OkHttpTransport(int connectTimeout, int readTimeout, int maxRequestsPerHost) {
+        this(new OkHttpClient.Builder()
+                .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .build(), maxRequestsPerHost);
+    }
+
+    /**
+     * @param client 与应用其他部分共享的OkHttpClient，可共用连接池
+     */
+    public OkHttpTransport(OkHttpClient client, int maxRequestsPerHost) {
+        mClient = client;
+        mHostLimiter = new HostLimiter(maxRequestsPerHost);
+    }
+
+    @Override
+    public NetworkResponse execute(String url, Map<String, String> headers) throws IOException {
+        Request.Builder builder = new Request.Builder().url(url);
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+        Request request = builder.build();
+        // 同步调用不受Dispatcher的每主机并发限制，由HostLimiter限制
+        final String host = request.url().host();
+        mHostLimiter.acquire(host);
+        try {
+            return new OkResponse(mClient.newCall(request).execute(), host);
+        } catch (IOException | RuntimeException e) {
+            mHostLimiter.release(host);
+            throw e;
+        }
+    }
+
+    public OkHttpClient getClient() {
+        return mClient;
+    }
+
+    private class OkResponse extends NetworkResponse {
+
+        private final Response mResponse;
+
+        private final String mHost;
+
+        private boolean mClosed;
+
+        OkResponse(Response response, String host) {
+            mResponse = response;
+            mHost = host;
+        }
+
+        @Override
+        public int getCode() {
+            return mResponse.code();
+        }
+
+        @Override
+        public long getContentLength() {
+            ResponseBody body = mResponse.body();
+            return body != null ? body.contentLength() : -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mResponse.header(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            ResponseBody body = mResponse.body();
+            if (body == null) {
+                throw new IOException("response has no body");
+            }
+            return body.byteStream();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mResponse.close();
+            mHostLimiter.release(mHost);
+        }
+    }
+}
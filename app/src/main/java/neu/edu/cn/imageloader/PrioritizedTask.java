@@ -0,0 +1,64 @@
+package neu.edu.cn.imageloader;
+
+/**
+ * Created by neuHenry on 2017/10/19.
+ * 可被LoadScheduler按优先级调度的任务
+ */
+
+public abstract class PrioritizedTask implements Runnable {
+
+    // 只在任务不在任何队列中时修改，否则会破坏优先级队列的堆序
+    volatile LoadPriority mPriority;
+
+    // 任务不在队列中时请求的新优先级，下次入队时生效
+    volatile LoadPriority mRequestedPriority;
+
+    // 入队序号，由LoadScheduler在入队时分配，用于FIFO/LIFO排序
+    volatile long mSequence;
+
+    // 入队时间，单位纳秒
+    volatile long mEnqueueTime;
+
+    public PrioritizedTask(LoadPriority priority) {
+        mPriority = priority;
+    }
+
+    public LoadPriority getPriority() {
+        return mPriority;
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public long getEnqueueTime() {
+        return mEnqueueTime;
+    }
+
+    /**
+     * 任务从队列中取出、即将执行时由LoadScheduler调用
+     * @param waitTime 本次在队列中的等待时间，单位纳秒
+     */
+    protected void onDequeued(long waitTime) {
+    }
+
+    /**
+     * @return 队列已满时允许被丢弃返回true，默认不可丢弃
+     */
+    protected boolean isSheddable() {
+        return false;
+    }
+
+    /**
+     * @return 任务的结果已无人需要时返回true，ShedPolicy.DROP_REBOUND会优先丢弃这类任务
+     */
+    protected boolean isObsolete() {
+        return false;
+    }
+
+    /**
+     * 任务因队列已满被丢弃、不会再执行时由LoadScheduler调用，需在此释放任务持有的资源
+     */
+    protected void onShed() {
+    }
+}
@@ -0,0 +1,161 @@
+package neu.edu.cn.imageloader;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by neuHenry on 2017/11/06.
+ * 把加载线程完成的结果收集起来，在主线程中每帧统一显示一次，一屏图片同时加载完成时只触发一次布局，
+ * 而不是每张图片一个Message分散在多帧中。每帧显示结果的时间有上限，超出的结果留到下一帧，避免掉帧。
+ * API 16及以上在Choreographer的帧回调中显示，以下的系统退化为在主线程Handler中分批显示
+ */
+
+public class ResultDispatcher {
+
+    // 每帧用于显示结果的默认时间上限，为布局和绘制留出大部分的帧时间
+    public static final long DEFAULT_FRAME_BUDGET_MILLIS = 4;
+
+    public interface Callback {
+        /**
+         * 在主线程中显示一个结果，返回后result会被回收，不能再持有
+         */
+        void onResult(LoaderResult result);
+    }
+
+    private final Handler mMainHandler;
+
+    private final Callback mCallback;
+
+    private final long mFrameBudgetNanos;
+
+    // 等待显示的结果，由自身加锁保护
+    private final ArrayDeque<LoaderResult> mPending = new ArrayDeque<>();
+
+    // 已安排了下一次显示，由mPending加锁保护
+    private boolean mScheduled;
+
+    private final Runnable mScheduleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduleFrame();
+        }
+    };
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    private Object mFrameCallback;
+
+    // 显示过结果的帧数和显示的结果数，只在主线程中访问
+    private long mFrameCount;
+
+    private long mResultCount;
+
+    /**
+     * @param mainHandler 主线程的Handler
+     * @param frameBudgetMillis 每帧用于显示结果的时间上限，单位毫秒，至少显示一个结果
+     */
+    public ResultDispatcher(Handler mainHandler, long frameBudgetMillis, Callback callback) {
+        mMainHandler = mainHandler;
+        mFrameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(frameBudgetMillis);
+        mCallback = callback;
+    }
+
+    /**
+     * 可在任意线程中调用，结果在之后的某一帧中显示
+     */
+    public void post(LoaderResult result) {
+        boolean schedule;
+        synchronized (mPending) {
+            mPending.add(result);
+            schedule = !mScheduled;
+            mScheduled = true;
+        }
+        if (schedule) {
+            // Choreographer只能在主线程中获取，由主线程安排帧回调
+            mMainHandler.post(mScheduleRunnable);
+        }
+    }
+
+    private void scheduleFrame() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback();
+        } else {
+            mMainHandler.post(mDispatchRunnable);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    dispatch();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    /**
+     * 在时间上限内依次显示等待中的结果，剩余的留到下一帧
+     */
+    private void dispatch() {
+        long deadline = System.nanoTime() + mFrameBudgetNanos;
+        mFrameCount++;
+        boolean drained = false;
+        try {
+            while (true) {
+                LoaderResult result;
+                synchronized (mPending) {
+                    result = mPending.poll();
+                    if (result == null) {
+                        mScheduled = false;
+                        drained = true;
+                        return;
+                    }
+                }
+                try {
+                    mCallback.onResult(result);
+                } finally {
+                    result.recycle();
+                }
+                mResultCount++;
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+            }
+        } finally {
+            // 显示某个结果时抛出异常，mScheduled仍为true，必须安排下一帧，否则之后的结果再也不会显示
+            if (!drained) {
+                scheduleFrame();
+            }
+        }
+    }
+
+    /**
+     * @return 等待显示的结果数
+     */
+    public int getPendingCount() {
+        synchronized (mPending) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * @return 平均每帧显示的结果数，只在主线程中调用
+     */
+    public float getResultsPerFrame() {
+        return mFrameCount == 0 ? 0 : (float) mResultCount / mFrameCount;
+    }
+}
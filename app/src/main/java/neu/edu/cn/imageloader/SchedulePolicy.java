@@ -0,0 +1,31 @@
+package neu.edu.cn.imageloader;
+
+import java.util.Comparator;
+
+/**
+ * Created by neuHenry on 2017/10/19.
+ * 内置的调度策略，先按优先级排序，同一优先级内再按入队顺序排序
+ */
+
+public enum SchedulePolicy implements Comparator<PrioritizedTask> {
+    // 先入队的先执行
+    FIFO {
+        @Override
+        public int compare(PrioritizedTask lhs, PrioritizedTask rhs) {
+            int result = lhs.mPriority.compareTo(rhs.mPriority);
+            return result != 0 ? result : compareSequence(lhs.mSequence, rhs.mSequence);
+        }
+    },
+    // 后入队的先执行，快速滑动后最新可见的图片不必排在过期请求之后
+    LIFO {
+        @Override
+        public int compare(PrioritizedTask lhs, PrioritizedTask rhs) {
+            int result = lhs.mPriority.compareTo(rhs.mPriority);
+            return result != 0 ? result : compareSequence(rhs.mSequence, lhs.mSequence);
+        }
+    };
+
+    private static int compareSequence(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+}
@@ -0,0 +1,173 @@
+package neu.edu.cn.imageloader;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Created by neuHenry on 2017/11/08.
+ * 把磁盘缓存按key分散到多个相互独立的DiskLruCache中，每个分片有自己的目录、journal和锁，
+ * 多个工作线程同时读写不同分片时不必在同一个锁上排队。各分片的容量之和等于总容量。
+ * 单个条目只能放在一个分片中，大于分片容量的条目提交后会被立即淘汰，
+ * 因此分片数会被减少到每个分片至少能容纳maxEntrySize大小的条目
+ */
+
+public class ShardedDiskCache implements Closeable {
+
+    private final DiskLruCache[] mShards;
+
+    private ShardedDiskCache(DiskLruCache[] shards) {
+        mShards = shards;
+    }
+
+    /**
+     * @param directory 缓存目录，分片分别位于其中名为0到shardCount-1的子目录
+     * @param appVersion 应用版本号，版本变化时缓存被清空
+     * @param valueCount 每个条目的值个数
+     * @param maxSize 所有分片的总容量，单位字节
+     * @param shardCount 期望的分片数，每个分片容纳不下maxEntrySize时按maxSize / maxEntrySize减少
+     * @param maxEntrySize 单个条目的大小上限，不超过该值的条目一定能保存在分片中，单位字节
+     */
+    public static ShardedDiskCache open(File directory, int appVersion, int valueCount, long maxSize,
+                                        int shardCount, long maxEntrySize) throws IOException {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount <= 0");
+        }
+        if (maxEntrySize <= 0 || maxEntrySize > maxSize) {
+            throw new IllegalArgumentException("maxEntrySize must be in (0, maxSize]");
+        }
+        int count = (int) Math.min(shardCount, maxSize / maxEntrySize);
+        deleteStaleFiles(directory, count);
+        DiskLruCache[] shards = new DiskLruCache[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                shards[i] = DiskLruCache.open(new File(directory, String.valueOf(i)), appVersion, valueCount,
+                        maxSize / count);
+            }
+        } catch (IOException e) {
+            for (DiskLruCache shard : shards) {
+                if (shard != null) {
+                    shard.close();
+                }
+            }
+            throw e;
+        }
+        return new ShardedDiskCache(shards);
+    }
+
+    /**
+     * 未分片时的journal和条目直接位于缓存目录下，分片数减少后多出的分片目录也不再使用，删除以释放空间
+     */
+    private static void deleteStaleFiles(File directory, int shardCount) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                file.delete();
+            } else if (isStaleShard(file.getName(), shardCount)) {
+                // 分片目录中只有journal和条目文件，没有子目录
+                File[] entries = file.listFiles();
+                if (entries != null) {
+                    for (File entry : entries) {
+                        entry.delete();
+                    }
+                }
+                file.delete();
+            }
+        }
+    }
+
+    private static boolean isStaleShard(String name, int shardCount) {
+        try {
+            return Integer.parseInt(name) >= shardCount;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param key hashKeyForDisk返回的key
+     * @return key所在的分片
+     */
+    private DiskLruCache shardFor(String key) {
+        return mShards[(key.hashCode() & Integer.MAX_VALUE) % mShards.length];
+    }
+
+    public DiskLruCache.Snapshot get(String key) throws IOException {
+        return shardFor(key).get(key);
+    }
+
+    public DiskLruCache.Editor edit(String key) throws IOException {
+        return shardFor(key).edit(key);
+    }
+
+    public boolean remove(String key) throws IOException {
+        return shardFor(key).remove(key);
+    }
+
+    /**
+     * @return 所有分片当前的占用之和，单位字节
+     */
+    public long size() {
+        long size = 0;
+        for (DiskLruCache shard : mShards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public long getMaxSize() {
+        long maxSize = 0;
+        for (DiskLruCache shard : mShards) {
+            maxSize += shard.getMaxSize();
+        }
+        return maxSize;
+    }
+
+    /**
+     * @return 单个条目的大小上限，即一个分片的容量，超过的条目提交后会被立即淘汰，单位字节
+     */
+    public long getMaxEntrySize() {
+        return mShards[0].getMaxSize();
+    }
+
+    public int getShardCount() {
+        return mShards.length;
+    }
+
+    /**
+     * @return 所有分片，用于交给JournalFlusher统一刷新
+     */
+    public DiskLruCache[] getShards() {
+        return mShards.clone();
+    }
+
+    public boolean isClosed() {
+        return mShards[0].isClosed();
+    }
+
+    public void flush() throws IOException {
+        for (DiskLruCache shard : mShards) {
+            shard.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (DiskLruCache shard : mShards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package neu.edu.cn.imageloader;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Created by neuHenry on 2017/11/05.
+ * LoadScheduler的队列已满时选择丢弃哪个任务，候选任务中包括正在入队的任务
+ */
+
+public enum ShedPolicy {
+    // 丢弃最早入队的任务
+    DROP_OLDEST {
+        @Override
+        public PrioritizedTask selectVictim(List<PrioritizedTask> candidates,
+                                            Comparator<? super PrioritizedTask> order) {
+            PrioritizedTask victim = null;
+            for (PrioritizedTask task : candidates) {
+                if (victim == null || task.mSequence < victim.mSequence) {
+                    victim = task;
+                }
+            }
+            return victim;
+        }
+    },
+    // 丢弃按调度策略最后才会执行的任务，即优先级最低、同一优先级内排在最后的任务
+    DROP_LOWEST_PRIORITY {
+        @Override
+        public PrioritizedTask selectVictim(List<PrioritizedTask> candidates,
+                                            Comparator<? super PrioritizedTask> order) {
+            PrioritizedTask victim = null;
+            for (PrioritizedTask task : candidates) {
+                if (victim == null || order.compare(task, victim) > 0) {
+                    victim = task;
+                }
+            }
+            return victim;
+        }
+    },
+    // 优先丢弃结果已无人需要的任务，如View已被复用而取消、但仍在流转中的任务，没有时丢弃优先级最低的任务
+    DROP_REBOUND {
+        @Override
+        public PrioritizedTask selectVictim(List<PrioritizedTask> candidates,
+                                            Comparator<? super PrioritizedTask> order) {
+            for (PrioritizedTask task : candidates) {
+                if (task.isObsolete()) {
+                    return task;
+                }
+            }
+            return DROP_LOWEST_PRIORITY.selectVictim(candidates, order);
+        }
+    };
+
+    /**
+     * @param candidates 可以被丢弃的任务，不为空
+     * @param order 调度器的排序规则
+     * @return 需要丢弃的任务，必须是candidates中的一个
+     */
+    public abstract PrioritizedTask selectVictim(List<PrioritizedTask> candidates,
+                                                 Comparator<? super PrioritizedTask> order);
+}
@@ -0,0 +1,106 @@
+package neu.edu.cn.imageloader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Created by neuHenry on 2017/10/23.
+ * 读取的同时把读到的字节写入另一个输出流，用于边下载边解码的同时写入磁盘缓存。
+ * 不支持mark/reset，需要回退时在外层再包一层BufferedInputStream
+ */
+
+public class TeeInputStream extends FilterInputStream {
+
+    private final OutputStream mBranch;
+
+    private final IoUtils.CopyListener mListener;
+
+    private long mCount = 0;
+
+    /**
+     * @param in 输入流
+     * @param branch 读到的字节同时写入的输出流
+     * @param listener 每次读取后回调，返回false时中止读取，可为null
+     */
+    public TeeInputStream(InputStream in, OutputStream branch, IoUtils.CopyListener listener) {
+        super(in);
+        mBranch = branch;
+        mListener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            mBranch.write(b);
+            onBytesRead(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int n = super.read(buffer, offset, count);
+        if (n > 0) {
+            mBranch.write(buffer, offset, n);
+            onBytesRead(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        // 跳过的字节也要写入输出流，这里通过读取实现
+        byte[] buffer = new byte[(int) Math.min(byteCount, 4096)];
+        long skipped = 0;
+        while (skipped < byteCount) {
+            int n = read(buffer, 0, (int) Math.min(buffer.length, byteCount - skipped));
+            if (n == -1) {
+                break;
+            }
+            skipped += n;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * 读完输入流中剩余的字节，使输出流得到完整的数据
+     * @param buffer 读取使用的缓冲区
+     */
+    public void drain(byte[] buffer) throws IOException {
+        while (read(buffer, 0, buffer.length) != -1) {
+            // 读到的字节已在read中写入输出流
+        }
+    }
+
+    /**
+     * @return 已读取的字节数
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    private void onBytesRead(int n) throws IOException {
+        mCount += n;
+        if (mListener != null && !mListener.onBytesCopied(mCount)) {
+            throw new InterruptedIOException("read aborted after " + mCount + " bytes");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package neu.edu.cn.imageloader;
+
+import android.graphics.Bitmap;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Created by neuHenry on 2017/11/04.
+ * 缩略图磁盘缓存：以url和所需宽高为key，保存已按所需尺寸解码后重新压缩的小图，
+ * 再次加载时只需读取和解码几KB的数据，不必每次都解码数MB的原图。
+ * 每个条目同时保存原图的CacheMetadata，原图过期需要重新验证时缩略图一并视为失效
+ */
+
+public class ThumbnailCache {
+
+    private static final int VALUE_COUNT = 2;
+
+    private static final int INDEX_DATA = 0;
+
+    private static final int INDEX_METADATA = 1;
+
+    // 不透明图片的压缩质量
+    private static final int QUALITY = 85;
+
+    private static final int IO_BUFFER_SIZE = 8 * 1024;
+
+    private final DiskLruCache mDiskLruCache;
+
+    private final JournalFlusher mJournalFlusher;
+
+    private ThumbnailCache(DiskLruCache diskLruCache, JournalFlusher journalFlusher) {
+        mDiskLruCache = diskLruCache;
+        mJournalFlusher = journalFlusher;
+    }
+
+    /**
+     * @param directory 缓存目录，不能与原图的磁盘缓存相同
+     * @param appVersion 应用版本号，版本变化时缓存被清空
+     * @param maxSize 缓存的最大容量，单位字节
+     */
+    public static ThumbnailCache open(File directory, int appVersion, long maxSize, int flushCommitThreshold,
+                                      long flushDelayMillis) throws IOException {
+        DiskLruCache diskLruCache = DiskLruCache.open(directory, appVersion, VALUE_COUNT, maxSize);
+        return new ThumbnailCache(diskLruCache,
+                new JournalFlusher(diskLruCache, flushCommitThreshold, flushDelayMillis));
+    }
+
+    /**
+     * @param key BitmapMemoryCache.getKey返回的key
+     * @return 缩略图条目，通过getInputStream(0)读取图片数据，不存在时返回null，使用后需关闭
+     */
+    public DiskLruCache.Snapshot get(String key) throws IOException {
+        return mDiskLruCache.get(key);
+    }
+
+    /**
+     * @param snapshot get返回的条目
+     * @return 写入缩略图时原图的CacheMetadata，旧格式的条目返回null
+     */
+    public static CacheMetadata getMetadata(DiskLruCache.Snapshot snapshot) throws IOException {
+        return CacheMetadata.decode(snapshot.getString(INDEX_METADATA));
+    }
+
+    /**
+     * 压缩bitmap并写入缓存，条目正在被其他线程写入时放弃
+     * @param key BitmapMemoryCache.getKey返回的key
+     * @param bitmap 已按所需尺寸解码的Bitmap，写入期间不能被复用
+     * @param metadata 原图的CacheMetadata，可为null
+     * @return 写入成功时返回true
+     */
+    public boolean put(String key, Bitmap bitmap, CacheMetadata metadata) throws IOException {
+        DiskLruCache.Editor editor = mDiskLruCache.edit(key);
+        if (editor == null) {
+            return false;
+        }
+        boolean success = false;
+        try {
+            OutputStream os = new BufferedOutputStream(editor.newOutputStream(INDEX_DATA), IO_BUFFER_SIZE);
+            try {
+                success = bitmap.compress(getCompressFormat(bitmap), QUALITY, os);
+            } finally {
+                os.close();
+            }
+            if (success) {
+                editor.set(INDEX_METADATA, metadata != null ? metadata.encode() : "");
+                editor.commit();
+            }
+        } finally {
+            // 压缩失败或写入、关闭时抛出异常都要放弃编辑，否则该条目一直被锁定，之后edit总是返回null
+            editor.abortUnlessCommitted();
+        }
+        if (success) {
+            mJournalFlusher.onCommit();
+        }
+        return success;
+    }
+
+    /**
+     * 带透明度的图片使用无损的PNG，WEBP的透明通道在4.3以下的系统上无法编码，
+     * 不透明的图片使用有损的WEBP，同样质量下比JPEG更小
+     */
+    static Bitmap.CompressFormat getCompressFormat(Bitmap bitmap) {
+        return bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.WEBP;
+    }
+
+    /**
+     * 移除无法解码的条目
+     */
+    public void remove(String key) {
+        try {
+            if (mDiskLruCache.remove(key)) {
+                mJournalFlusher.onCommit();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public long size() {
+        return mDiskLruCache.size();
+    }
+
+    public void flush() {
+        mJournalFlusher.flush();
+    }
+
+    public void close() {
+        mJournalFlusher.close();
+        try {
+            mDiskLruCache.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package neu.edu.cn.imageloader;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Created by neuHenry on 2017/11/01.
+ * 分块解码得到的图块的内存缓存，与普通图片的内存缓存分开计算容量。
+ * 打开中的图片的图块被淘汰时可能仍在View正在绘制的列表中，只丢弃不复用；
+ * 图片关闭后它的图块才放入复用池，供后续解码使用
+ */
+
+public class TileCache {
+
+    private final LruCache<String, Bitmap> mCache;
+
+    private final BitmapPool mBitmapPool;
+
+    // 打开中的分块图片的编号
+    private final Set<Integer> mOpenImages = Collections.synchronizedSet(new HashSet<Integer>());
+
+    // 当前允许的占用，不超过maxSize，内存紧张时调低，单位KB
+    private volatile int mBudget;
+
+    /**
+     * @param maxSize 缓存的最大容量，单位KB
+     * @param bitmapPool 被淘汰图块的复用池，可为null
+     */
+    public TileCache(int maxSize, BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+        mBudget = maxSize;
+        mCache = new LruCache<String, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight() / 1024;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue && mBitmapPool != null && !isImageOpen(key)) {
+                    mBitmapPool.put(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param imageId 分块图片的编号
+     * @param sampleSize 图块的采样率
+     * @param column 图块所在的列
+     * @param row 图块所在的行
+     * @return 图块在缓存中的key
+     */
+    public static String getKey(int imageId, int sampleSize, int column, int row) {
+        return imageId + "/" + sampleSize + "/" + column + "/" + row;
+    }
+
+    private boolean isImageOpen(String key) {
+        return mOpenImages.contains(Integer.valueOf(key.substring(0, key.indexOf('/'))));
+    }
+
+    /**
+     * 标记图片已打开，在removeImage之前它的图块被淘汰时不放入复用池
+     */
+    public void openImage(int imageId) {
+        mOpenImages.add(imageId);
+    }
+
+    public Bitmap get(String key) {
+        return mCache.get(key);
+    }
+
+    public void put(String key, Bitmap tile) {
+        mCache.put(key, tile);
+        int budget = mBudget;
+        if (mCache.size() > budget) {
+            mCache.trimToSize(budget);
+        }
+    }
+
+    /**
+     * 关闭图片并移除它的所有图块，图块放入复用池，调用方之后不能再绘制它们
+     */
+    public void removeImage(int imageId) {
+        mOpenImages.remove(imageId);
+        String prefix = imageId + "/";
+        List<String> keys = new ArrayList<>();
+        for (String key : mCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        for (String key : keys) {
+            mCache.remove(key);
+        }
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    /**
+     * @param maxSize 淘汰图块直到占用不超过该值，单位KB
+     */
+    public void trimToSize(int maxSize) {
+        mCache.trimToSize(maxSize);
+    }
+
+    /**
+     * @return 当前占用，单位KB
+     */
+    public int size() {
+        return mCache.size();
+    }
+
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * 调整允许的占用并立即淘汰超出的部分
+     * @param budget 允许的占用，超过maxSize时按maxSize计，单位KB
+     */
+    public void setBudget(int budget) {
+        mBudget = Math.max(0, Math.min(budget, maxSize()));
+        if (mBudget == 0) {
+            mCache.evictAll();
+        } else {
+            mCache.trimToSize(mBudget);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TileCache{size=" + size() + "KB, maxSize=" + maxSize() + "KB, hits=" + mCache.hitCount()
+                + ", misses=" + mCache.missCount() + "}";
+    }
+}
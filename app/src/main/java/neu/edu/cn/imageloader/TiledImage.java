@@ -0,0 +1,357 @@
+package neu.edu.cn.imageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Handler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by neuHenry on 2017/11/01.
+ * 按块解码的大图。打开后先显示整图的低分辨率预览，
+ * 再根据可见区域和缩放比例只解码可见的图块，图块保存在独立的TileCache中，
+ * 内存占用只与屏幕大小有关，与原图分辨率无关。除注明外的方法都需在主线程中调用
+ */
+
+public class TiledImage {
+
+    // 图块的边长，单位为采样后的像素
+    public static final int TILE_SIZE = 512;
+
+    public interface Listener {
+        /**
+         * 图片已打开，可以获取宽高和预览
+         */
+        void onPreviewReady(TiledImage image);
+
+        /**
+         * 有新的图块解码完成，需要重绘
+         */
+        void onTileReady(TiledImage image);
+
+        /**
+         * 图片下载或打开失败
+         */
+        void onLoadFailed(TiledImage image);
+    }
+
+    /**
+     * 一个已解码的图块
+     */
+    public static class Tile {
+        // 图块在原图中的区域
+        public final Rect region;
+        public final Bitmap bitmap;
+
+        Tile(Rect region, Bitmap bitmap) {
+            this.region = region;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final int mId;
+
+    private final String mUrl;
+
+    private final ImageResizer mImageResizer;
+
+    private final TileCache mTileCache;
+
+    private final LoadScheduler mDecodeStage;
+
+    private final Handler mMainHandler;
+
+    private final Listener mListener;
+
+    private volatile BitmapRegionDecoder mDecoder;
+
+    // 预览和图块的像素格式
+    private volatile Bitmap.Config mConfig;
+
+    // 解码器读取的磁盘缓存条目，关闭图片时一并关闭
+    private Closeable mSource;
+
+    private Bitmap mPreview;
+
+    private int mWidth;
+
+    private int mHeight;
+
+    private volatile boolean mRecycled;
+
+    // 当前可见区域和采样率
+    private final Rect mViewport = new Rect();
+
+    private int mSampleSize = 1;
+
+    // 尚未完成的图块解码任务，以图块的key为键
+    private final Map<String, TileTask> mPendingTiles = new HashMap<>();
+
+    TiledImage(int id, String url, ImageResizer imageResizer, TileCache tileCache, LoadScheduler decodeStage,
+               Handler mainHandler, Listener listener) {
+        mId = id;
+        mUrl = url;
+        mImageResizer = imageResizer;
+        mTileCache = tileCache;
+        mDecodeStage = decodeStage;
+        mMainHandler = mainHandler;
+        mListener = listener;
+        mTileCache.openImage(id);
+    }
+
+    /**
+     * 在工作线程中打开解码器并解码预览，完成后在主线程回调
+     * @param source 解码器读取的数据源，图片关闭时关闭
+     * @param config 预览和图块的像素格式
+     * @return 打开成功返回true
+     */
+    boolean open(BitmapRegionDecoder decoder, Closeable source, Bitmap.Config config, int previewWidth,
+                 int previewHeight) {
+        Rect whole = new Rect(0, 0, decoder.getWidth(), decoder.getHeight());
+        int sampleSize = calculateSampleSize(decoder.getWidth(), decoder.getHeight(), previewWidth, previewHeight);
+        final Bitmap preview = mImageResizer.decodeRegion(decoder, whole, sampleSize, config);
+        if (preview == null) {
+            return false;
+        }
+        final int width = decoder.getWidth();
+        final int height = decoder.getHeight();
+        mConfig = config;
+        mDecoder = decoder;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRecycled) {
+                    return;
+                }
+                mWidth = width;
+                mHeight = height;
+                mPreview = preview;
+                mListener.onPreviewReady(TiledImage.this);
+            }
+        });
+        synchronized (this) {
+            mSource = source;
+            if (!mRecycled) {
+                return true;
+            }
+        }
+        // 打开期间图片已被关闭
+        closeSource();
+        return true;
+    }
+
+    /**
+     * 在工作线程中调用，通知主线程打开失败
+     */
+    void fail() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mRecycled) {
+                    mListener.onLoadFailed(TiledImage.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * 与ImageResizer.calculateInSampleSize相同，宽高都不小于所需宽高的最大2的幂次采样率
+     */
+    private static int calculateSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / 2 / sampleSize >= reqWidth && height / 2 / sampleSize >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 设置可见区域，解码其中缺少的图块，并取消已不可见的图块的解码
+     * @param viewport 原图坐标系中的可见区域
+     * @param scale 显示的像素数与原图像素数之比，如0.25表示缩小到1/4显示
+     */
+    public void setViewport(Rect viewport, float scale) {
+        if (mRecycled || mDecoder == null) {
+            return;
+        }
+        mViewport.set(viewport);
+        mViewport.intersect(new Rect(0, 0, mWidth, mHeight));
+        // 选取不超过1/scale的最大2的幂次作为采样率，解码出的图块不比显示的像素少
+        int sampleSize = 1;
+        while (scale > 0 && sampleSize * 2 <= 1f / scale) {
+            sampleSize *= 2;
+        }
+        mSampleSize = sampleSize;
+
+        Map<String, TileTask> visible = new HashMap<>();
+        int tileSpan = TILE_SIZE * sampleSize;
+        for (int row = mViewport.top / tileSpan; row * tileSpan < mViewport.bottom; row++) {
+            for (int column = mViewport.left / tileSpan; column * tileSpan < mViewport.right; column++) {
+                String key = TileCache.getKey(mId, sampleSize, column, row);
+                if (mTileCache.get(key) != null) {
+                    continue;
+                }
+                TileTask task = mPendingTiles.remove(key);
+                if (task == null) {
+                    task = new TileTask(key, getTileRegion(column, row, sampleSize), sampleSize);
+                    mDecodeStage.execute(task);
+                }
+                visible.put(key, task);
+            }
+        }
+        cancelPendingTiles();
+        mPendingTiles.putAll(visible);
+    }
+
+    private Rect getTileRegion(int column, int row, int sampleSize) {
+        int tileSpan = TILE_SIZE * sampleSize;
+        return new Rect(column * tileSpan, row * tileSpan,
+                Math.min(mWidth, (column + 1) * tileSpan), Math.min(mHeight, (row + 1) * tileSpan));
+    }
+
+    private void cancelPendingTiles() {
+        for (TileTask task : mPendingTiles.values()) {
+            task.mCancelled = true;
+            mDecodeStage.remove(task);
+        }
+        mPendingTiles.clear();
+    }
+
+    /**
+     * @return 当前可见区域内已解码的图块，没有覆盖到的部分需用预览填充
+     */
+    public List<Tile> getVisibleTiles() {
+        List<Tile> tiles = new ArrayList<>();
+        if (mRecycled || mViewport.isEmpty()) {
+            return tiles;
+        }
+        int tileSpan = TILE_SIZE * mSampleSize;
+        for (int row = mViewport.top / tileSpan; row * tileSpan < mViewport.bottom; row++) {
+            for (int column = mViewport.left / tileSpan; column * tileSpan < mViewport.right; column++) {
+                Bitmap bitmap = mTileCache.get(TileCache.getKey(mId, mSampleSize, column, row));
+                if (bitmap != null) {
+                    tiles.add(new Tile(getTileRegion(column, row, mSampleSize), bitmap));
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * @return 整图的低分辨率预览，打开前为null
+     */
+    public Bitmap getPreview() {
+        return mPreview;
+    }
+
+    /**
+     * @return 原图的宽度，打开前为0
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return 原图的高度，打开前为0
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public boolean isRecycled() {
+        return mRecycled;
+    }
+
+    /**
+     * 关闭图片，取消未完成的解码并释放图块、预览和解码器
+     */
+    public void recycle() {
+        if (mRecycled) {
+            return;
+        }
+        mRecycled = true;
+        cancelPendingTiles();
+        mTileCache.removeImage(mId);
+        mPreview = null;
+        closeSource();
+    }
+
+    private void closeSource() {
+        Closeable source;
+        synchronized (this) {
+            source = mSource;
+            mSource = null;
+        }
+        BitmapRegionDecoder decoder = mDecoder;
+        if (decoder != null) {
+            // 正在进行的decodeRegion结束后才会真正释放
+            decoder.recycle();
+        }
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private class TileTask extends PrioritizedTask {
+
+        final String mKey;
+        final Rect mRegion;
+        final int mSampleSize;
+        volatile boolean mCancelled;
+
+        TileTask(String key, Rect region, int sampleSize) {
+            super(LoadPriority.VISIBLE);
+            mKey = key;
+            mRegion = region;
+            mSampleSize = sampleSize;
+        }
+
+        @Override
+        public void run() {
+            BitmapRegionDecoder decoder = mDecoder;
+            if (mCancelled || mRecycled || decoder == null) {
+                return;
+            }
+            final Bitmap tile;
+            try {
+                tile = mImageResizer.decodeRegion(decoder, mRegion, mSampleSize, mConfig);
+            } catch (IllegalStateException e) {
+                // 解码器已被关闭
+                return;
+            }
+            if (tile == null) {
+                return;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mPendingTiles.get(mKey) == TileTask.this) {
+                        mPendingTiles.remove(mKey);
+                    }
+                    if (mRecycled) {
+                        return;
+                    }
+                    mTileCache.put(mKey, tile);
+                    mListener.onTileReady(TiledImage.this);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package neu.edu.cn.imageloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Created by neuHenry on 2017/10/30.
+ * 基于HttpURLConnection的默认传输层。成功的请求不调用disconnect()，
+ * 响应体读完并关闭后底层连接回到系统的keep-alive连接池，后续同一主机的请求可复用该连接
+ */
+
+public class UrlConnectionTransport implements NetworkTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 15 * 1000;
+
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 6;
+
+    private final int mConnectTimeout;
+
+    private final int mReadTimeout;
+
+    private final HostLimiter mHostLimiter;
+
+    public UrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * @param connectTimeout 连接超时，单位毫秒
+     * @param readTimeout 读取超时，单位毫秒
+     * @param maxRequestsPerHost 每个主机同时进行的最大请求数
+     */
+    public UrlConnectionTransport(int connectTimeout, int readTimeout, int maxRequestsPerHost) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+        mHostLimiter = new HostLimiter(maxRequestsPerHost);
+    }
+
+    @Override
+    public NetworkResponse execute(String url, Map<String, String> headers) throws IOException {
+        URL uri = new URL(url);
+        final String host = uri.getHost();
+        mHostLimiter.acquire(host);
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) uri.openConnection();
+            connection.setConnectTimeout(mConnectTimeout);
+            connection.setReadTimeout(mReadTimeout);
+            connection.setUseCaches(false);
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            // 读取响应头，连接失败时在这里抛出异常
+            connection.getResponseCode();
+            return new Response(connection, host);
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            mHostLimiter.release(host);
+            throw e;
+        }
+    }
+
+    private class Response extends NetworkResponse {
+
+        private final HttpURLConnection mConnection;
+
+        private final String mHost;
+
+        private InputStream mBody;
+
+        private boolean mClosed;
+
+        Response(HttpURLConnection connection, String host) {
+            mConnection = connection;
+            mHost = host;
+        }
+
+        @Override
+        public int getCode() {
+            try {
+                return mConnection.getResponseCode();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public long getContentLength() {
+            return mConnection.getContentLength();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public synchronized InputStream getBody() throws IOException {
+            if (mBody == null) {
+                mBody = isSuccessful() ? mConnection.getInputStream() : mConnection.getErrorStream();
+            }
+            return mBody;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                if (mBody != null) {
+                    mBody.close();
+                } else if (!isSuccessful()) {
+                    // 没有读取响应体的错误响应，直接断开以免连接停留在未读完的状态
+                    mConnection.disconnect();
+                } else {
+                    mConnection.getInputStream().close();
+                }
+            } catch (IOException e) {
+                mConnection.disconnect();
+            } finally {
+                mHostLimiter.release(mHost);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import org.junit.Assume;
+
+/**
+ * Created by neuHenry on 2017/10/29.
+ * 基准测试的参数，通过系统属性配置，例如：
+ * ./gradlew testDebugUnitTest -Dimageloader.benchmark=true -Dimageloader.benchmark.latencyMs=50
+ */
+
+final class BenchmarkConfig {
+
+    // 为true时才运行基准测试，普通的单元测试中跳过
+    static final boolean ENABLED = Boolean.getBoolean("imageloader.benchmark");
+
+    // 本地服务器每条新连接的建连延迟，单位毫秒，模拟TCP/TLS握手的往返时间
+    static final int CONNECT_LATENCY_MILLIS = Integer.getInteger("imageloader.benchmark.connectLatencyMs", 100);
+
+    // 本地服务器每个响应的首字节延迟，单位毫秒
+    static final int LATENCY_MILLIS = Integer.getInteger("imageloader.benchmark.latencyMs", 20);
+
+    // 本地服务器的带宽，单位KB/s，0表示不限速
+    static final int BANDWIDTH_KBPS = Integer.getInteger("imageloader.benchmark.bandwidthKbps", 4096);
+
+    // 测试图片的张数
+    static final int CORPUS_SIZE = Integer.getInteger("imageloader.benchmark.corpusSize", 48);
+
+    // 每个场景的测量次数
+    static final int ITERATIONS = Integer.getInteger("imageloader.benchmark.iterations", 200);
+
+    // 每个场景正式测量前的预热次数
+    static final int WARMUP = Integer.getInteger("imageloader.benchmark.warmup", 50);
+
+    private BenchmarkConfig() {
+    }
+
+    static void assumeEnabled() {
+        Assume.assumeTrue("run with -Dimageloader.benchmark=true", ENABLED);
+    }
+}
@@ -0,0 +1,114 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import android.support.v4.util.LruCache;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.imageio.ImageIO;
+
+import neu.edu.cn.imageloader.ByteArrayPool;
+import neu.edu.cn.imageloader.JournalFlusher;
+import neu.edu.cn.imageloader.KeyHasher;
+import neu.edu.cn.imageloader.TeeInputStream;
+
+/**
+ * Created by neuHenry on 2017/10/29.
+ * 在JVM上复现ImageLoader的加载路径：内存缓存 -> 磁盘缓存 -> 边下载边写入磁盘并解码。
+ * 磁盘缓存、key哈希、缓冲区池、journal批量刷新和TeeInputStream都使用ImageLoader中的实现，
+ * BitmapFactory在JVM上不可用，解码由ImageIO代替，内存缓存中保存BufferedImage
+ */
+
+final class BenchmarkLoader {
+
+    private static final int IO_BUFFER_SIZE = 8 * 1024;
+
+    private static final long DISK_CACHE_SIZE = 1024 * 1024 * 50;
+
+    private final KeyHasher mKeyHasher = new KeyHasher(256);
+
+    private final ByteArrayPool mBufferPool = new ByteArrayPool(256 * 1024);
+
+    private final LruCache<String, BufferedImage> mMemoryCache;
+
+    private final DiskLruCache mDiskLruCache;
+
+    private final JournalFlusher mJournalFlusher;
+
+    /**
+     * @param directory 磁盘缓存目录
+     * @param memoryCacheSize 内存缓存大小，单位KB
+     */
+    BenchmarkLoader(File directory, int memoryCacheSize) throws IOException {
+        mMemoryCache = new LruCache<String, BufferedImage>(memoryCacheSize) {
+            @Override
+            protected int sizeOf(String key, BufferedImage value) {
+                return value.getWidth() * value.getHeight() * 4 / 1024;
+            }
+        };
+        mDiskLruCache = DiskLruCache.open(directory, 1, 1, DISK_CACHE_SIZE);
+        mJournalFlusher = new JournalFlusher(mDiskLruCache, 16, 2000);
+    }
+
+    BufferedImage load(String url) throws IOException {
+        String key = mKeyHasher.hash(url);
+        BufferedImage image = mMemoryCache.get(key);
+        if (image != null) {
+            return image;
+        }
+        DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
+        if (snapshot != null) {
+            try {
+                image = ImageIO.read(snapshot.getInputStream(0));
+            } finally {
+                snapshot.close();
+            }
+        } else {
+            image = download(url, key);
+        }
+        if (image != null) {
+            mMemoryCache.put(key, image);
+        }
+        return image;
+    }
+
+    private BufferedImage download(String url, String key) throws IOException {
+        DiskLruCache.Editor editor = mDiskLruCache.edit(key);
+        if (editor == null) {
+            throw new IOException("entry is being edited: " + url);
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        byte[] buffer = mBufferPool.getBuf(IO_BUFFER_SIZE);
+        OutputStream os = editor.newOutputStream(0);
+        InputStream is = connection.getInputStream();
+        try {
+            TeeInputStream tee = new TeeInputStream(is, os, null);
+            BufferedImage image = ImageIO.read(tee);
+            tee.drain(buffer);
+            os.close();
+            editor.commit();
+            mJournalFlusher.onCommit();
+            return image;
+        } finally {
+            mBufferPool.returnBuf(buffer);
+            editor.abortUnlessCommitted();
+            is.close();
+        }
+    }
+
+    void clearMemoryCache() {
+        mMemoryCache.evictAll();
+    }
+
+    void close() throws IOException {
+        mJournalFlusher.close();
+        mDiskLruCache.close();
+    }
+}
@@ -0,0 +1,119 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Created by neuHenry on 2017/10/29.
+ * 一个场景的测量结果：吞吐量、p50/p99延迟，以及测量线程上每次操作的平均分配字节数
+ */
+
+final class BenchmarkResult {
+
+    interface Operation {
+        /**
+         * @param iteration 从0开始的测量序号，预热阶段为负数
+         * @return 本次操作处理的字节数，用于计算MB/s，不关心时返回0
+         */
+        long run(int iteration) throws Exception;
+    }
+
+    private final String mName;
+
+    private final long[] mLatencies;
+
+    private final long mTotalTime;
+
+    private final long mAllocatedBytes;
+
+    private final long mBytes;
+
+    private BenchmarkResult(String name, long[] latencies, long totalTime, long allocatedBytes, long bytes) {
+        mName = name;
+        mLatencies = latencies;
+        mTotalTime = totalTime;
+        mAllocatedBytes = allocatedBytes;
+        mBytes = bytes;
+        Arrays.sort(mLatencies);
+    }
+
+    /**
+     * 在当前线程上先预热再逐次测量operation，并输出结果
+     */
+    static BenchmarkResult measure(String name, int warmup, int iterations, Operation operation) throws Exception {
+        for (int i = -warmup; i < 0; i++) {
+            operation.run(i);
+        }
+        long[] latencies = new long[iterations];
+        long bytes = 0;
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long begin = System.nanoTime();
+            bytes += operation.run(i);
+            latencies[i] = System.nanoTime() - begin;
+        }
+        long totalTime = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+        BenchmarkResult result = new BenchmarkResult(name, latencies, totalTime, allocated, bytes);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * @return 当前线程累计分配的字节数，虚拟机不支持时返回0
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param percentile 百分位，取值0~100
+     * @return 单次操作的延迟，单位纳秒
+     */
+    long getPercentile(double percentile) {
+        if (mLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(mLatencies.length * percentile / 100) - 1;
+        return mLatencies[Math.max(0, Math.min(mLatencies.length - 1, index))];
+    }
+
+    /**
+     * @return 每秒完成的操作数
+     */
+    double getThroughput() {
+        return mTotalTime == 0 ? 0 : mLatencies.length * 1e9 / mTotalTime;
+    }
+
+    /**
+     * @return 每秒处理的MB数
+     */
+    double getMegabytesPerSecond() {
+        return mTotalTime == 0 ? 0 : mBytes * 1e9 / mTotalTime / (1024 * 1024);
+    }
+
+    long getAllocatedBytesPerOp() {
+        return mLatencies.length == 0 ? 0 : mAllocatedBytes / mLatencies.length;
+    }
+
+    @Override
+    public String toString() {
+        String line = String.format(Locale.US, "%-32s n=%d %.1f ops/s p50=%.3fms p99=%.3fms alloc=%dB/op",
+                mName, mLatencies.length, getThroughput(), getPercentile(50) / 1e6, getPercentile(99) / 1e6,
+                getAllocatedBytesPerOp());
+        if (mBytes > 0) {
+            line += String.format(Locale.US, " %.1fMB/s", getMegabytesPerSecond());
+        }
+        return line;
+    }
+}
@@ -0,0 +1,229 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import neu.edu.cn.imageloader.ByteArrayPool;
+import neu.edu.cn.imageloader.IoUtils;
+import neu.edu.cn.imageloader.JournalFlusher;
+import neu.edu.cn.imageloader.KeyHasher;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by neuHenry on 2017/10/29.
+ * 加载路径中各组件的微基准，每项都与改动前的实现对比
+ */
+
+public class ComponentBenchmark {
+
+    private static final int IO_BUFFER_SIZE = 8 * 1024;
+
+    // 同时写入磁盘缓存的线程数，与ImageLoader的网络阶段线程数相当
+    private static final int WRITERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void keyHashing() throws Exception {
+        BenchmarkConfig.assumeEnabled();
+        final String[] urls = new String[1024];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = "http://img.example.com/photos/2017/10/" + i + "/thumbnail_large.jpg";
+        }
+        final KeyHasher hasher = new KeyHasher(256);
+        assertEquals(legacyHash(urls[0]), hasher.hash(urls[0]));
+        int iterations = BenchmarkConfig.ITERATIONS * 500;
+        BenchmarkResult.measure("hash legacy", BenchmarkConfig.WARMUP * 100, iterations,
+                new BenchmarkResult.Operation() {
+                    @Override
+                    public long run(int iteration) throws Exception {
+                        legacyHash(urls[(iteration & Integer.MAX_VALUE) % urls.length]);
+                        return 0;
+                    }
+                });
+        BenchmarkResult.measure("hash KeyHasher (miss)", BenchmarkConfig.WARMUP * 100, iterations,
+                new BenchmarkResult.Operation() {
+                    @Override
+                    public long run(int iteration) throws Exception {
+                        // 1024个url轮流出现，超出256条的key缓存，每次都要计算摘要
+                        hasher.hash(urls[(iteration & Integer.MAX_VALUE) % urls.length]);
+                        return 0;
+                    }
+                });
+        BenchmarkResult.measure("hash KeyHasher (hit)", BenchmarkConfig.WARMUP * 100, iterations,
+                new BenchmarkResult.Operation() {
+                    @Override
+                    public long run(int iteration) throws Exception {
+                        hasher.hash(urls[(iteration & Integer.MAX_VALUE) % 64]);
+                        return 0;
+                    }
+                });
+    }
+
+    /**
+     * 改动前hashKeyForDisk的实现：每次获取MessageDigest并逐字节拼接十六进制字符串
+     */
+    private static String legacyHash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(key.getBytes());
+            byte[] bytes = digest.digest();
+            StringBuilder sb = new StringBuilder();
+            for (byte b : bytes) {
+                String hex = Integer.toHexString(0xFF & b);
+                if (hex.length() == 1) {
+                    sb.append('0');
+                }
+                sb.append(hex);
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    @Test
+    public void downloadCopy() throws Exception {
+        BenchmarkConfig.assumeEnabled();
+        final byte[] data = new byte[512 * 1024];
+        final ByteArrayPool pool = new ByteArrayPool(64 * 1024);
+        final OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        BenchmarkResult.measure("copy per-byte (legacy)", BenchmarkConfig.WARMUP, BenchmarkConfig.ITERATIONS,
+                new BenchmarkResult.Operation() {
+                    @Override
+                    public long run(int iteration) throws Exception {
+                        // 改动前downLoadUrlToStream的写法：经缓冲流逐字节读写
+                        InputStream in = new BufferedInputStream(new ByteArrayInputStream(data), IO_BUFFER_SIZE);
+                        OutputStream out = new BufferedOutputStream(sink, IO_BUFFER_SIZE);
+                        int b;
+                        while ((b = in.read()) != -1) {
+                            out.write(b);
+                        }
+                        out.flush();
+                        return data.length;
+                    }
+                });
+        BenchmarkResult.measure("copy bulk IoUtils", BenchmarkConfig.WARMUP, BenchmarkConfig.ITERATIONS,
+                new BenchmarkResult.Operation() {
+                    @Override
+                    public long run(int iteration) throws Exception {
+                        byte[] buffer = pool.getBuf(IO_BUFFER_SIZE);
+                        try {
+                            return IoUtils.copy(new ByteArrayInputStream(data), sink, buffer, null);
+                        } finally {
+                            pool.returnBuf(buffer);
+                        }
+                    }
+                });
+    }
+
+    @Test
+    public void journalFlush() throws Exception {
+        BenchmarkConfig.assumeEnabled();
+        System.out.println(String.format(Locale.US, "journal flush with %d concurrent writers", WRITERS));
+        DiskLruCache eager = DiskLruCache.open(mFolder.newFolder(), 1, 1, 1024 * 1024 * 50);
+        try {
+            // 预热一轮，之后在同一个缓存中写入新的key
+            concurrentCommits("warmup", eager, null, 0, BenchmarkConfig.WARMUP);
+            concurrentCommits("commit + flush each (legacy)", eager, null, 1, BenchmarkConfig.ITERATIONS);
+        } finally {
+            eager.close();
+        }
+        DiskLruCache batched = DiskLruCache.open(mFolder.newFolder(), 1, 1, 1024 * 1024 * 50);
+        JournalFlusher flusher = new JournalFlusher(batched, 16, 2000);
+        try {
+            concurrentCommits("warmup", batched, flusher, 0, BenchmarkConfig.WARMUP);
+            int flushes = flusher.getFlushCount();
+            concurrentCommits("commit + JournalFlusher", batched, flusher, 1, BenchmarkConfig.ITERATIONS);
+            System.out.println("journal flushes: " + (flusher.getFlushCount() - flushes) + " for "
+                    + WRITERS * BenchmarkConfig.ITERATIONS + " commits");
+        } finally {
+            flusher.close();
+            batched.close();
+        }
+    }
+
+    /**
+     * WRITERS个线程同时提交，模拟一批冷启动下载同时写入磁盘缓存
+     * @param flusher 为null时每次提交后立即flush，与改动前的写法相同
+     * @param round 用于区分各轮写入的key
+     * @param commits 每个线程的提交次数
+     */
+    private static void concurrentCommits(String name, final DiskLruCache cache, final JournalFlusher flusher,
+                                          final int round, final int commits) throws Exception {
+        final byte[] data = new byte[16 * 1024];
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(WRITERS);
+        for (int t = 0; t < WRITERS; t++) {
+            final int writer = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < commits; i++) {
+                            commit(cache, "entry_" + round + "_" + writer + "_" + i, data);
+                            if (flusher != null) {
+                                flusher.onCommit();
+                            } else {
+                                cache.flush();
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "writer#" + t).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        assertEquals(0, failures.get());
+        if (round > 0) {
+            int total = WRITERS * commits;
+            System.out.println(String.format(Locale.US, "%-30s %6d commits in %8.1fms %10.0f commits/s", name,
+                    total, elapsed / 1e6, total * 1e9 / elapsed));
+        }
+    }
+
+    private static void commit(DiskLruCache cache, String key, byte[] data) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        OutputStream out = editor.newOutputStream(0);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        editor.commit();
+    }
+}
@@ -0,0 +1,141 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import neu.edu.cn.imageloader.KeyHasher;
+import neu.edu.cn.imageloader.ShardedDiskCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by neuHenry on 2017/11/08.
+ * 多个工作线程同时命中磁盘缓存时的吞吐量随分片数的变化，分片数为1时等同于改动前的单个DiskLruCache
+ */
+
+public class DiskShardBenchmark {
+
+    private static final int[] SHARD_COUNTS = {1, 2, 4, 8};
+
+    // 与ImageLoader的网络阶段线程数相当
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final int ENTRIES = 512;
+
+    // 条目大小与网格中的小图相当
+    private static final int ENTRY_SIZE = 16 * 1024;
+
+    private static final long DURATION_MILLIS = 2000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void concurrentDiskHits() throws Exception {
+        BenchmarkConfig.assumeEnabled();
+        KeyHasher hasher = new KeyHasher(ENTRIES);
+        final String[] keys = new String[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = hasher.hash("http://img.example.com/photos/" + i + ".jpg");
+        }
+        double baseline = 0;
+        for (int shardCount : SHARD_COUNTS) {
+            ShardedDiskCache cache = ShardedDiskCache.open(mFolder.newFolder(), 1, 2, 1024 * 1024 * 50, shardCount,
+                    ENTRY_SIZE);
+            try {
+                populate(cache, keys);
+                // 预热一轮，让文件进入页缓存
+                run(cache, keys, DURATION_MILLIS / 4);
+                double opsPerSecond = run(cache, keys, DURATION_MILLIS);
+                if (shardCount == 1) {
+                    baseline = opsPerSecond;
+                }
+                System.out.println(String.format(Locale.US,
+                        "disk hits shards=%d threads=%d %10.0f ops/s (%.2fx)", shardCount, THREADS, opsPerSecond,
+                        opsPerSecond / baseline));
+            } finally {
+                cache.close();
+            }
+        }
+    }
+
+    private static void populate(ShardedDiskCache cache, String[] keys) throws IOException {
+        byte[] data = new byte[ENTRY_SIZE];
+        for (String key : keys) {
+            DiskLruCache.Editor editor = cache.edit(key);
+            OutputStream out = editor.newOutputStream(0);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            editor.set(1, "0\n\n");
+            editor.commit();
+        }
+        cache.flush();
+    }
+
+    /**
+     * 所有线程同时不断随机读取整个条目
+     * @return 每秒完成的读取次数
+     */
+    private static double run(final ShardedDiskCache cache, final String[] keys, final long durationMillis)
+            throws Exception {
+        final AtomicLong operations = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[8 * 1024];
+                    int index = seed * 31;
+                    long count = 0;
+                    try {
+                        start.await();
+                        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+                        while (System.nanoTime() < deadline) {
+                            index = (index * 1103515245 + 12345) & Integer.MAX_VALUE;
+                            DiskLruCache.Snapshot snapshot = cache.get(keys[index % keys.length]);
+                            try {
+                                InputStream in = snapshot.getInputStream(0);
+                                int total = 0;
+                                int read;
+                                while ((read = in.read(buffer)) != -1) {
+                                    total += read;
+                                }
+                                assertEquals(ENTRY_SIZE, total);
+                            } finally {
+                                snapshot.close();
+                            }
+                            count++;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        operations.addAndGet(count);
+                        done.countDown();
+                    }
+                }
+            }, "disk-hit#" + t).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        assertTrue(done.await(durationMillis * 10, TimeUnit.MILLISECONDS));
+        long elapsed = System.nanoTime() - begin;
+        return operations.get() * 1e9 / elapsed;
+    }
+}
@@ -0,0 +1,81 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Created by neuHenry on 2017/10/29.
+ * 基准测试用的JPEG/PNG图片集，用固定种子生成，带有渐变和噪点，编码后的大小接近真实的照片缩略图
+ */
+
+final class ImageCorpus {
+
+    private final Map<String, byte[]> mImages = new LinkedHashMap<>();
+
+    private long mTotalBytes;
+
+    /**
+     * @param count 图片张数，每4张中有1张PNG，其余为JPEG
+     */
+    ImageCorpus(int count) throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            boolean png = i % 4 == 3;
+            int width = 320 + random.nextInt(4) * 160;
+            int height = 240 + random.nextInt(4) * 120;
+            byte[] data = encode(generate(random, width, height), png ? "png" : "jpg");
+            mImages.put(i + (png ? ".png" : ".jpg"), data);
+            mTotalBytes += data.length;
+        }
+    }
+
+    private static BufferedImage generate(Random random, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(random.nextInt()), width, height, new Color(random.nextInt())));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        // 噪点使编码后的大小不至于过小
+        for (int i = width * height / 8; i > 0; i--) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt());
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return 图片名，如"3.png"，为null时不存在
+     */
+    byte[] get(String name) {
+        return mImages.get(name);
+    }
+
+    List<String> getNames() {
+        return Collections.unmodifiableList(new ArrayList<>(mImages.keySet()));
+    }
+
+    int size() {
+        return mImages.size();
+    }
+
+    long getTotalBytes() {
+        return mTotalBytes;
+    }
+}
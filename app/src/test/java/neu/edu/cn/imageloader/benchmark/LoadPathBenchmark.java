@@ -0,0 +1,106 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Created by neuHenry on 2017/10/29.
+ * 冷启动、磁盘缓存命中、内存缓存命中三种场景下整条加载路径的吞吐量、延迟和分配
+ */
+
+public class LoadPathBenchmark {
+
+    private static ImageCorpus sCorpus;
+
+    private static LocalImageServer sServer;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUpServer() throws IOException {
+        BenchmarkConfig.assumeEnabled();
+        sCorpus = new ImageCorpus(BenchmarkConfig.CORPUS_SIZE);
+        sServer = new LocalImageServer(sCorpus, BenchmarkConfig.LATENCY_MILLIS, BenchmarkConfig.BANDWIDTH_KBPS);
+        System.out.println("corpus: " + sCorpus.size() + " images, " + sCorpus.getTotalBytes() / 1024
+                + "KB, latency=" + BenchmarkConfig.LATENCY_MILLIS + "ms, bandwidth="
+                + BenchmarkConfig.BANDWIDTH_KBPS + "KB/s");
+    }
+
+    @AfterClass
+    public static void tearDownServer() {
+        if (sServer != null) {
+            sServer.shutdown();
+        }
+    }
+
+    @Test
+    public void cold() throws Exception {
+        final BenchmarkLoader loader = new BenchmarkLoader(mFolder.newFolder(), 32 * 1024);
+        final List<String> urls = sServer.getUrls();
+        // 网络场景较慢，测量次数不超过图片张数的两倍
+        int iterations = Math.min(BenchmarkConfig.ITERATIONS, urls.size() * 2);
+        long requestsBefore = sServer.getRequestCount();
+        BenchmarkResult.measure("cold (network+disk+decode)", 0, iterations, new BenchmarkResult.Operation() {
+            @Override
+            public long run(int iteration) throws Exception {
+                // 查询参数使每次的url都不同，保证内存和磁盘缓存都未命中
+                String url = urls.get(iteration % urls.size()) + "?r=" + iteration;
+                assertNotNull(loader.load(url));
+                return 0;
+            }
+        });
+        assertEquals(iterations, sServer.getRequestCount() - requestsBefore);
+        loader.close();
+    }
+
+    @Test
+    public void warmDisk() throws Exception {
+        final BenchmarkLoader loader = new BenchmarkLoader(mFolder.newFolder(), 32 * 1024);
+        final List<String> urls = sServer.getUrls();
+        for (String url : urls) {
+            loader.load(url);
+        }
+        long requestsBefore = sServer.getRequestCount();
+        BenchmarkResult.measure("warm disk (disk+decode)", BenchmarkConfig.WARMUP, BenchmarkConfig.ITERATIONS,
+                new BenchmarkResult.Operation() {
+                    @Override
+                    public long run(int iteration) throws Exception {
+                        loader.clearMemoryCache();
+                        assertNotNull(loader.load(urls.get(Math.abs(iteration) % urls.size())));
+                        return 0;
+                    }
+                });
+        assertEquals(0, sServer.getRequestCount() - requestsBefore);
+        loader.close();
+    }
+
+    @Test
+    public void warmMemory() throws Exception {
+        final BenchmarkLoader loader = new BenchmarkLoader(mFolder.newFolder(), 256 * 1024);
+        final List<String> urls = sServer.getUrls();
+        for (String url : urls) {
+            loader.load(url);
+        }
+        long requestsBefore = sServer.getRequestCount();
+        BenchmarkResult.measure("warm memory", BenchmarkConfig.WARMUP, BenchmarkConfig.ITERATIONS * 100,
+                new BenchmarkResult.Operation() {
+                    @Override
+                    public long run(int iteration) throws Exception {
+                        assertNotNull(loader.load(urls.get(Math.abs(iteration) % urls.size())));
+                        return 0;
+                    }
+                });
+        assertEquals(0, sServer.getRequestCount() - requestsBefore);
+        loader.close();
+    }
+}
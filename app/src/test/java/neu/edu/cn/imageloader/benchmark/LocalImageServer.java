@@ -0,0 +1,166 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by neuHenry on 2017/10/29.
+ * 在本机回环地址上提供图片集的HTTP服务器，可配置建连延迟、首字节延迟和带宽以模拟移动网络。
+ * 请求路径为/img/图片名，查询参数被忽略，可用于构造不同的url以绕过缓存
+ */
+
+final class LocalImageServer {
+
+    private static final String PATH_PREFIX = "/img/";
+
+    // 限速时每次写出的字节数
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    private final ImageCorpus mCorpus;
+
+    private final int mLatencyMillis;
+
+    private final int mBandwidthKbps;
+
+    // 每条新连接上第一个请求额外的延迟，模拟TCP/TLS握手的往返时间
+    private final int mConnectLatencyMillis;
+
+    // 见过的客户端地址，每条新连接的客户端端口都不同
+    private final Set<InetSocketAddress> mConnections = Collections.newSetFromMap(
+            new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
+    private final HttpServer mServer;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+
+    private final AtomicLong mBytesServed = new AtomicLong();
+
+    /**
+     * @param latencyMillis 每个响应的首字节延迟
+     * @param bandwidthKbps 每个连接的带宽，单位KB/s，0表示不限速
+     */
+    LocalImageServer(ImageCorpus corpus, int latencyMillis, int bandwidthKbps) throws IOException {
+        this(corpus, 0, latencyMillis, bandwidthKbps);
+    }
+
+    /**
+     * @param connectLatencyMillis 每条新连接额外的建连延迟
+     */
+    LocalImageServer(ImageCorpus corpus, int connectLatencyMillis, int latencyMillis, int bandwidthKbps)
+            throws IOException {
+        mCorpus = corpus;
+        mConnectLatencyMillis = connectLatencyMillis;
+        mLatencyMillis = latencyMillis;
+        mBandwidthKbps = bandwidthKbps;
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext(PATH_PREFIX, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        mRequestCount.incrementAndGet();
+        String name = exchange.getRequestURI().getPath().substring(PATH_PREFIX.length());
+        byte[] data = mCorpus.get(name);
+        try {
+            if (mConnections.add(exchange.getRemoteAddress())) {
+                sleep(mConnectLatencyMillis);
+            }
+            sleep(mLatencyMillis);
+            if (data == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", name.endsWith(".png") ? "image/png" : "image/jpeg");
+            exchange.sendResponseHeaders(200, data.length);
+            OutputStream out = exchange.getResponseBody();
+            if (mBandwidthKbps <= 0) {
+                out.write(data);
+            } else {
+                long start = System.nanoTime();
+                for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+                    int count = Math.min(CHUNK_SIZE, data.length - offset);
+                    out.write(data, offset, count);
+                    out.flush();
+                    // 按带宽计算这部分数据最早应该发完的时间
+                    long due = (long) (offset + count) * 1000000 / mBandwidthKbps / 1024;
+                    long elapsed = (System.nanoTime() - start) / 1000;
+                    if (due > elapsed) {
+                        sleep((due - elapsed) / 1000);
+                    }
+                }
+            }
+            mBytesServed.addAndGet(data.length);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    String getUrl(String name) {
+        return "http://" + mServer.getAddress().getAddress().getHostAddress() + ":"
+                + mServer.getAddress().getPort() + PATH_PREFIX + name;
+    }
+
+    /**
+     * @return 图片集中所有图片的url
+     */
+    List<String> getUrls() {
+        List<String> urls = new ArrayList<>();
+        for (String name : mCorpus.getNames()) {
+            urls.add(getUrl(name));
+        }
+        return urls;
+    }
+
+    long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return 客户端建立过的连接数
+     */
+    long getConnectionCount() {
+        return mConnections.size();
+    }
+
+    long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    void shutdown() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,171 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import neu.edu.cn.imageloader.LoadPriority;
+import neu.edu.cn.imageloader.LoadScheduler;
+import neu.edu.cn.imageloader.PrioritizedTask;
+import neu.edu.cn.imageloader.SchedulePolicy;
+import neu.edu.cn.imageloader.ShedPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by neuHenry on 2017/11/05.
+ * 模拟长时间快速滑动时工作线程跟不上入队速度：每个任务持有一块内存代表其引用的View和请求，
+ * 对比不限长度的队列和各丢弃策略下的有界队列，在入队过程中定期测量堆内存占用
+ */
+
+public class QueueStressBenchmark {
+
+    private static final int TASKS = 10000;
+
+    // 每个任务持有的内存，单位字节
+    private static final int PAYLOAD_SIZE = 4 * 1024;
+
+    private static final int MAX_QUEUE_SIZE = 64;
+
+    private static final int SAMPLES = 5;
+
+    @BeforeClass
+    public static void setUpClass() {
+        BenchmarkConfig.assumeEnabled();
+    }
+
+    @Test
+    public void unbounded() throws Exception {
+        long[] heap = flood(0, ShedPolicy.DROP_OLDEST);
+        // 队列中的任务全部存活，内存随入队数线性增长
+        assertTrue(heap[SAMPLES - 1] - heap[0] > (long) TASKS / 2 * PAYLOAD_SIZE);
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        assertFlat(flood(MAX_QUEUE_SIZE, ShedPolicy.DROP_OLDEST));
+    }
+
+    @Test
+    public void dropLowestPriority() throws Exception {
+        assertFlat(flood(MAX_QUEUE_SIZE, ShedPolicy.DROP_LOWEST_PRIORITY));
+    }
+
+    @Test
+    public void dropRebound() throws Exception {
+        assertFlat(flood(MAX_QUEUE_SIZE, ShedPolicy.DROP_REBOUND));
+    }
+
+    private static void assertFlat(long[] heap) {
+        // 有界队列最多持有MAX_QUEUE_SIZE个任务，其余被丢弃后可回收，允许少量测量误差
+        assertTrue(heap[SAMPLES - 1] - heap[0] < (long) MAX_QUEUE_SIZE * PAYLOAD_SIZE * 4 + 1024 * 1024);
+    }
+
+    /**
+     * 阻塞唯一的工作线程，持续入队TASKS个任务
+     * @param maxQueueSize 队列的最大长度，0表示不限制
+     * @return 入队过程中各采样点的堆内存占用，单位字节
+     */
+    private long[] flood(int maxQueueSize, ShedPolicy policy) throws Exception {
+        LoadScheduler scheduler = new LoadScheduler("stress", 1, SchedulePolicy.LIFO);
+        scheduler.setMaxQueueSize(maxQueueSize, policy);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        scheduler.execute(new PrioritizedTask(LoadPriority.VISIBLE) {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        AtomicInteger shed = new AtomicInteger();
+        long[] heap = new long[SAMPLES];
+        int sample = 0;
+        try {
+            for (int i = 0; i < TASKS; i++) {
+                if (i % (TASKS / SAMPLES) == 0) {
+                    heap[sample++] = usedHeap();
+                }
+                // 每10个任务中有1个所属的View已被复用
+                scheduler.execute(new FlingTask(i, i % 10 == 0, shed));
+                if (maxQueueSize > 0) {
+                    assertTrue(scheduler.getQueueSize() <= maxQueueSize);
+                }
+            }
+            if (maxQueueSize > 0) {
+                assertEquals(TASKS - scheduler.getQueueSize(), shed.get());
+                assertEquals(shed.get(), scheduler.getShedCount());
+            }
+            System.out.println(String.format(Locale.US,
+                    "queue stress %-20s queue=%5d peak=%5d shed=%5d heap %s",
+                    maxQueueSize > 0 ? policy : "UNBOUNDED", scheduler.getQueueSize(), scheduler.getPeakQueueSize(),
+                    scheduler.getShedCount(), formatHeap(heap)));
+            return heap;
+        } finally {
+            blocker.countDown();
+            scheduler.shutdown();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String formatHeap(long[] heap) {
+        StringBuilder builder = new StringBuilder();
+        for (long bytes : heap) {
+            if (builder.length() > 0) {
+                builder.append(" -> ");
+            }
+            builder.append(bytes / 1024).append("KB");
+        }
+        return builder.toString();
+    }
+
+    private static class FlingTask extends PrioritizedTask {
+
+        private final boolean mRebound;
+
+        private final AtomicInteger mShed;
+
+        // 代表任务引用的View、请求和回调
+        private byte[] mPayload = new byte[PAYLOAD_SIZE];
+
+        FlingTask(int position, boolean rebound, AtomicInteger shed) {
+            super(position % 3 == 0 ? LoadPriority.PREFETCH : LoadPriority.VISIBLE);
+            mRebound = rebound;
+            mShed = shed;
+        }
+
+        @Override
+        protected boolean isSheddable() {
+            return true;
+        }
+
+        @Override
+        protected boolean isObsolete() {
+            return mRebound;
+        }
+
+        @Override
+        protected void onShed() {
+            mPayload = null;
+            mShed.incrementAndGet();
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import neu.edu.cn.imageloader.IoUtils;
+import neu.edu.cn.imageloader.LoadPriority;
+import neu.edu.cn.imageloader.LoadScheduler;
+import neu.edu.cn.imageloader.PrioritizedTask;
+import neu.edu.cn.imageloader.SchedulePolicy;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by neuHenry on 2017/10/29.
+ * 回放一次快速滑动：滑动期间每帧有新的格子进入屏幕并发起加载，停止后统计最终可见的格子全部加载完成所需的时间，
+ * 对比FIFO和LIFO两种调度策略
+ */
+
+public class SchedulingBenchmark {
+
+    // 网格的列数和可见行数
+    private static final int COLUMNS = 3;
+
+    private static final int VISIBLE_ROWS = 5;
+
+    // 滑动持续的帧数，每帧16ms滑过一行
+    private static final int FLING_FRAMES = 40;
+
+    private static final long FRAME_MILLIS = 16;
+
+    private static final int POOL_SIZE = 4;
+
+    private static final int TRACES = 5;
+
+    private static ImageCorpus sCorpus;
+
+    private static LocalImageServer sServer;
+
+    @BeforeClass
+    public static void setUpServer() throws IOException {
+        BenchmarkConfig.assumeEnabled();
+        sCorpus = new ImageCorpus(BenchmarkConfig.CORPUS_SIZE);
+        sServer = new LocalImageServer(sCorpus, BenchmarkConfig.LATENCY_MILLIS, BenchmarkConfig.BANDWIDTH_KBPS);
+    }
+
+    @AfterClass
+    public static void tearDownServer() {
+        if (sServer != null) {
+            sServer.shutdown();
+        }
+    }
+
+    @Test
+    public void scrollTrace() throws Exception {
+        long fifo = replay(SchedulePolicy.FIFO);
+        long lifo = replay(SchedulePolicy.LIFO);
+        assertTrue(fifo > 0 && lifo > 0);
+    }
+
+    /**
+     * @return 多次回放中可见格子全部加载完成时间的中位数，单位毫秒
+     */
+    private long replay(SchedulePolicy policy) throws Exception {
+        long[] results = new long[TRACES];
+        for (int trace = 0; trace < TRACES; trace++) {
+            results[trace] = replayOnce(policy, trace);
+        }
+        Arrays.sort(results);
+        System.out.println(String.format(Locale.US, "scroll trace %-4s time to visible pixels p50=%dms max=%dms",
+                policy, results[TRACES / 2], results[TRACES - 1]));
+        return results[TRACES / 2];
+    }
+
+    private long replayOnce(SchedulePolicy policy, int trace) throws Exception {
+        List<String> urls = sServer.getUrls();
+        LoadScheduler scheduler = new LoadScheduler("benchmark", POOL_SIZE, policy);
+        int lastRow = FLING_FRAMES;
+        CountDownLatch visible = new CountDownLatch(COLUMNS * VISIBLE_ROWS);
+        CountDownLatch all = new CountDownLatch(COLUMNS * (lastRow + VISIBLE_ROWS));
+        try {
+            for (int row = 0; row < lastRow + VISIBLE_ROWS; row++) {
+                boolean finallyVisible = row >= lastRow;
+                for (int column = 0; column < COLUMNS; column++) {
+                    int position = row * COLUMNS + column;
+                    // 每次回放使用不同的url，避免连接层面的缓存影响结果
+                    String url = urls.get(position % urls.size()) + "?t=" + trace + "&p=" + position;
+                    scheduler.execute(new FetchTask(url, finallyVisible ? visible : null, all));
+                }
+                if (row >= VISIBLE_ROWS && row < lastRow) {
+                    Thread.sleep(FRAME_MILLIS);
+                }
+            }
+            long stop = System.nanoTime();
+            assertTrue(visible.await(60, TimeUnit.SECONDS));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stop);
+            // 等待滑过的格子也加载完，避免影响下一次回放
+            assertTrue(all.await(60, TimeUnit.SECONDS));
+            return elapsed;
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static class FetchTask extends PrioritizedTask {
+
+        private final String mUrl;
+
+        private final CountDownLatch mVisible;
+
+        private final CountDownLatch mAll;
+
+        FetchTask(String url, CountDownLatch visible, CountDownLatch all) {
+            super(LoadPriority.VISIBLE);
+            mUrl = url;
+            mVisible = visible;
+            mAll = all;
+        }
+
+        @Override
+        public void run() {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+                InputStream in = connection.getInputStream();
+                try {
+                    IoUtils.copy(in, new OutputStream() {
+                        @Override
+                        public void write(int b) {
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) {
+                        }
+                    }, new byte[8 * 1024], null);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if (mVisible != null) {
+                    mVisible.countDown();
+                }
+                mAll.countDown();
+            }
+        }
+    }
+}
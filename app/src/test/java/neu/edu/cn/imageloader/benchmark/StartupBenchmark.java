@@ -0,0 +1,241 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import neu.edu.cn.imageloader.KeyHasher;
+import neu.edu.cn.imageloader.LoadPriority;
+import neu.edu.cn.imageloader.LoadScheduler;
+import neu.edu.cn.imageloader.PrioritizedTask;
+import neu.edu.cn.imageloader.SchedulePolicy;
+import neu.edu.cn.imageloader.ShardedDiskCache;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by neuHenry on 2017/11/07.
+ * 按ImageLoader构造和首次加载的路径，对比构造时同步打开磁盘缓存和交给磁盘阶段异步打开两种方式，
+ * 随journal大小的变化：构造线程被阻塞的时间，以及构造后立即发起的第一次加载读到磁盘缓存数据的时间。
+ * 缓存的打开方式与ImageLoader相同：按分片打开，每个条目包含图片数据和元数据两个值
+ */
+
+public class StartupBenchmark {
+
+    // journal中的条目数，50M的缓存约可容纳数千张图片
+    private static final int[] ENTRY_COUNTS = {500, 2000, 8000};
+
+    private static final int RUNS = 7;
+
+    // 与ImageLoader的磁盘缓存参数相同
+    private static final long DISK_CACHE_SIZE = 1024 * 1024 * 50;
+
+    private static final int SHARD_COUNT = 4;
+
+    private static final long MAX_ENTRY_SIZE = 1024 * 1024 * 16;
+
+    private static final int VALUE_COUNT = 2;
+
+    private static final int ENTRY_SIZE = 256;
+
+    private static final KeyHasher KEY_HASHER = new KeyHasher(16);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void openDiskCache() throws Exception {
+        BenchmarkConfig.assumeEnabled();
+        for (int entries : ENTRY_COUNTS) {
+            File directory = mFolder.newFolder();
+            populate(directory, entries);
+            // 第一次加载的是最近显示过的图片
+            String key = keyFor(entries - 1);
+            long[] syncBlocked = new long[RUNS];
+            long[] syncFirstHit = new long[RUNS];
+            long[] asyncBlocked = new long[RUNS];
+            long[] asyncFirstHit = new long[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                long[] sync = startSync(directory, key);
+                syncBlocked[run] = sync[0];
+                syncFirstHit[run] = sync[1];
+                long[] async = startAsync(directory, key);
+                asyncBlocked[run] = async[0];
+                asyncFirstHit[run] = async[1];
+            }
+            System.out.println(String.format(Locale.US,
+                    "startup entries=%5d journal=%5dKB constructor blocked sync p50=%6.2fms async p50=%6.3fms, "
+                            + "first hit sync p50=%6.2fms async p50=%6.2fms", entries, journalSize(directory) / 1024,
+                    median(syncBlocked), median(asyncBlocked), median(syncFirstHit), median(asyncFirstHit)));
+        }
+    }
+
+    /**
+     * 构造时在调用线程中打开磁盘缓存，之后第一次加载在磁盘阶段中读取
+     * @return 调用线程被阻塞的时间和第一次加载读到数据的时间，单位纳秒
+     */
+    private static long[] startSync(File directory, final String key) throws Exception {
+        LoadScheduler diskStage = new LoadScheduler("startup-sync", 2, SchedulePolicy.LIFO);
+        final CountDownLatch hit = new CountDownLatch(1);
+        final AtomicLong hitTime = new AtomicLong();
+        ShardedDiskCache cache = null;
+        try {
+            long start = System.nanoTime();
+            cache = ShardedDiskCache.open(directory, 1, VALUE_COUNT, DISK_CACHE_SIZE, SHARD_COUNT, MAX_ENTRY_SIZE);
+            long blocked = System.nanoTime() - start;
+            final ShardedDiskCache opened = cache;
+            diskStage.execute(new PrioritizedTask(LoadPriority.VISIBLE) {
+                @Override
+                public void run() {
+                    if (read(opened, key)) {
+                        hitTime.set(System.nanoTime());
+                    }
+                    hit.countDown();
+                }
+            });
+            assertTrue(hit.await(60, TimeUnit.SECONDS));
+            assertTrue("first load missed the disk cache", hitTime.get() > 0);
+            return new long[]{blocked, hitTime.get() - start};
+        } finally {
+            diskStage.shutdown();
+            if (cache != null) {
+                cache.close();
+            }
+        }
+    }
+
+    /**
+     * 与ImageLoader相同：构造时只把打开任务放入磁盘阶段，打开期间发起的加载先等待，打开后再放入磁盘阶段
+     * @return 调用线程被阻塞的时间和第一次加载读到数据的时间，单位纳秒
+     */
+    private static long[] startAsync(final File directory, final String key) throws Exception {
+        final LoadScheduler diskStage = new LoadScheduler("startup-async", 2, SchedulePolicy.LIFO);
+        final CountDownLatch hit = new CountDownLatch(1);
+        final AtomicLong hitTime = new AtomicLong();
+        final ShardedDiskCache[] cache = new ShardedDiskCache[1];
+        final PrioritizedTask firstLoad = new PrioritizedTask(LoadPriority.VISIBLE) {
+            @Override
+            public void run() {
+                if (cache[0] != null && read(cache[0], key)) {
+                    hitTime.set(System.nanoTime());
+                }
+                hit.countDown();
+            }
+        };
+        try {
+            long start = System.nanoTime();
+            diskStage.execute(new PrioritizedTask(LoadPriority.VISIBLE) {
+                @Override
+                public void run() {
+                    try {
+                        cache[0] = ShardedDiskCache.open(directory, 1, VALUE_COUNT, DISK_CACHE_SIZE, SHARD_COUNT,
+                                MAX_ENTRY_SIZE);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        // 打开后把等待中的加载放入磁盘阶段
+                        diskStage.execute(firstLoad);
+                    }
+                }
+            });
+            long blocked = System.nanoTime() - start;
+            assertTrue(hit.await(60, TimeUnit.SECONDS));
+            assertTrue("first load missed the disk cache", hitTime.get() > 0);
+            return new long[]{blocked, hitTime.get() - start};
+        } finally {
+            diskStage.shutdown();
+            if (cache[0] != null) {
+                cache[0].close();
+            }
+        }
+    }
+
+    /**
+     * @return 读到了完整的条目时返回true
+     */
+    private static boolean read(ShardedDiskCache cache, String key) {
+        try {
+            DiskLruCache.Snapshot snapshot = cache.get(key);
+            if (snapshot == null) {
+                return false;
+            }
+            try {
+                InputStream in = snapshot.getInputStream(0);
+                byte[] buffer = new byte[ENTRY_SIZE];
+                int total = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    total += read;
+                }
+                return total == ENTRY_SIZE;
+            } finally {
+                snapshot.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 写入entries个条目，每个条目与ImageLoader一样包含图片数据和元数据两个值
+     */
+    private static void populate(File directory, int entries) throws IOException {
+        ShardedDiskCache cache = ShardedDiskCache.open(directory, 1, VALUE_COUNT, DISK_CACHE_SIZE, SHARD_COUNT,
+                MAX_ENTRY_SIZE);
+        byte[] data = new byte[ENTRY_SIZE];
+        for (int i = 0; i < entries; i++) {
+            DiskLruCache.Editor editor = cache.edit(keyFor(i));
+            OutputStream out = editor.newOutputStream(0);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            editor.set(1, "0\n\n");
+            editor.commit();
+            // 模拟浏览过程中的读取，journal中会留下READ记录
+            DiskLruCache.Snapshot snapshot = cache.get(keyFor(i / 2));
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+        cache.close();
+    }
+
+    private static String keyFor(int index) {
+        return KEY_HASHER.hash("http://img.example.com/photos/" + index + ".jpg");
+    }
+
+    /**
+     * @return 所有分片的journal大小之和，单位字节
+     */
+    private static long journalSize(File directory) {
+        long size = 0;
+        File[] shards = directory.listFiles();
+        if (shards != null) {
+            for (File shard : shards) {
+                size += new File(shard, "journal").length();
+            }
+        }
+        return size;
+    }
+
+    private static double median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1000000.0;
+    }
+}
@@ -0,0 +1,170 @@
+package neu.edu.cn.imageloader.benchmark;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import neu.edu.cn.imageloader.IoUtils;
+import neu.edu.cn.imageloader.NetworkResponse;
+import neu.edu.cn.imageloader.NetworkTransport;
+import neu.edu.cn.imageloader.OkHttpTransport;
+import neu.edu.cn.imageloader.UrlConnectionTransport;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by neuHenry on 2017/10/30.
+ * 在模拟了建连往返时间的本地服务器上，对比每次新建连接并disconnect()的旧写法与各传输层实现
+ */
+
+public class TransportBenchmark {
+
+    // 并发下载的线程数，与ImageLoader网络阶段的线程数相当
+    private static final int THREADS = 8;
+
+    private static ImageCorpus sCorpus;
+
+    private static LocalImageServer sServer;
+
+    private static final OutputStream SINK = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @BeforeClass
+    public static void setUpServer() throws IOException {
+        BenchmarkConfig.assumeEnabled();
+        sCorpus = new ImageCorpus(BenchmarkConfig.CORPUS_SIZE);
+        sServer = new LocalImageServer(sCorpus, BenchmarkConfig.CONNECT_LATENCY_MILLIS,
+                BenchmarkConfig.LATENCY_MILLIS, BenchmarkConfig.BANDWIDTH_KBPS);
+        System.out.println("connect latency=" + BenchmarkConfig.CONNECT_LATENCY_MILLIS + "ms, latency="
+                + BenchmarkConfig.LATENCY_MILLIS + "ms");
+    }
+
+    @AfterClass
+    public static void tearDownServer() {
+        if (sServer != null) {
+            sServer.shutdown();
+        }
+    }
+
+    @Test
+    public void legacy() throws Exception {
+        run("fresh connection + disconnect", new LegacyTransport());
+    }
+
+    @Test
+    public void urlConnection() throws Exception {
+        run("UrlConnectionTransport", new UrlConnectionTransport());
+    }
+
+    @Test
+    public void okHttp() throws Exception {
+        // 本地服务器是明文HTTP/1.1，这里测的是OkHttp的连接池，HTTP/2需要TLS
+        run("OkHttpTransport", new OkHttpTransport());
+    }
+
+    private void run(String name, final NetworkTransport transport) throws Exception {
+        final List<String> urls = sServer.getUrls();
+        long connectionsBefore = sServer.getConnectionCount();
+        BenchmarkResult.measure(name + " sequential", 0, urls.size(), new BenchmarkResult.Operation() {
+            @Override
+            public long run(int iteration) throws Exception {
+                return fetch(transport, urls.get(iteration));
+            }
+        });
+        long sequentialConnections = sServer.getConnectionCount() - connectionsBefore;
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Long>> futures = new ArrayList<>();
+        long connectionsMiddle = sServer.getConnectionCount();
+        long start = System.nanoTime();
+        for (final String url : urls) {
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return fetch(transport, url);
+                }
+            }));
+        }
+        long bytes = 0;
+        for (Future<Long> future : futures) {
+            bytes += future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        assertEquals(sCorpus.getTotalBytes(), bytes);
+        System.out.println(String.format(Locale.US, "%-32s %d images in %dms with %d threads, "
+                        + "connections: sequential=%d concurrent=%d", name + " concurrent", urls.size(),
+                elapsed / 1000000, THREADS, sequentialConnections,
+                sServer.getConnectionCount() - connectionsMiddle));
+    }
+
+    private static long fetch(NetworkTransport transport, String url) throws IOException {
+        NetworkResponse response = transport.execute(url, null);
+        try {
+            return IoUtils.copy(response.getBody(), SINK, new byte[8 * 1024], null);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 改动前的下载写法：每张图片新建连接，读完后立即disconnect()
+     */
+    private static class LegacyTransport implements NetworkTransport {
+        @Override
+        public NetworkResponse execute(String url, Map<String, String> headers) throws IOException {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            return new NetworkResponse() {
+                @Override
+                public int getCode() {
+                    try {
+                        return connection.getResponseCode();
+                    } catch (IOException e) {
+                        return -1;
+                    }
+                }
+
+                @Override
+                public long getContentLength() {
+                    return connection.getContentLength();
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return connection.getHeaderField(name);
+                }
+
+                @Override
+                public InputStream getBody() throws IOException {
+                    return connection.getInputStream();
+                }
+
+                @Override
+                public void close() {
+                    connection.disconnect();
+                }
+            };
+        }
+    }
+}